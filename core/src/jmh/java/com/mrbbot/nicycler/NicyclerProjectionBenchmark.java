@@ -0,0 +1,310 @@
+package com.mrbbot.nicycler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the projection's hot paths. Every benchmark starts from a sorted, filtered
+ * projection that has already been built, like a nicycler that's on screen.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class NicyclerProjectionBenchmark {
+    static class Item {
+        int key;
+        final String name;
+
+        Item(int key) {
+            this.key = key;
+            this.name = "Item " + key;
+        }
+    }
+
+    private static final Comparator<Item> ASCENDING = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Item> DESCENDING = Collections.reverseOrder(ASCENDING);
+
+    private static final KeyedSorter<Item> KEYED = KeyedSorter.byLong(new LongKey<Item>() {
+        @Override
+        public long key(Item item) {
+            return item.key;
+        }
+    });
+
+    private static final Collator COLLATOR = Collator.getInstance();
+
+    private static final Comparator<Item> COLLATED = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return COLLATOR.compare(a.name, b.name);
+        }
+    };
+
+    private static final KeyedSorter<Item> COLLATION_KEYED = KeyedSorter.byKey(new Key<Item, CollationKey>() {
+        @Override
+        public CollationKey key(Item item) {
+            return COLLATOR.getCollationKey(item.name);
+        }
+    });
+
+    private static final Filter<Item> EVEN = new Filter<Item>() {
+        @Override
+        public boolean accept(Item item) {
+            return item.key % 2 == 0;
+        }
+    };
+
+    private static final Filter<Item> NOT_THIRD = new Filter<Item>() {
+        @Override
+        public boolean accept(Item item) {
+            return item.key % 3 != 0;
+        }
+    };
+
+    private static final TextKey<Item> NAME = new TextKey<Item>() {
+        @Override
+        public CharSequence text(Item item) {
+            return item.name;
+        }
+    };
+
+    /**
+     * Search filter checking every item, lower-casing its text each time
+     */
+    private static Filter<Item> scan(final String query) {
+        return new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item.name.toLowerCase().contains(query);
+            }
+        };
+    }
+
+    /**
+     * Observer counting notifications, so they can't be optimised away
+     */
+    static class Counter implements NicyclerProjection.Observer {
+        long count;
+
+        @Override
+        public void onInserted(int position, int count) {
+            this.count += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            this.count += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            count++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            this.count += count;
+        }
+
+        @Override
+        public void onReset() {
+            count++;
+        }
+    }
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    private Random random;
+    private List<Item> items;
+    private Counter counter;
+    private NicyclerProjection<Item> projection;
+    private boolean toggle;
+
+    @Setup(Level.Iteration)
+    public void setUp(BenchmarkParams params) {
+        random = new Random(1);
+        items = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) items.add(new Item(random.nextInt(size)));
+        counter = new Counter();
+        projection = new NicyclerProjection<>(counter);
+        // Only the indexed search pays for maintaining the index
+        if(params.getBenchmark().endsWith("searchIndexed")) projection.index(NAME);
+        if(params.getBenchmark().endsWith("Limited")) projection.limit(200);
+        projection.filter = EVEN;
+        projection.sorter = ASCENDING;
+        projection.set(items);
+        projection.get();
+    }
+
+    private Item randomItem() {
+        return projection.dataset.get(random.nextInt(projection.dataset.size()));
+    }
+
+    @Benchmark
+    public long add() {
+        projection.add(Collections.singletonList(new Item(random.nextInt(size))));
+        return counter.count;
+    }
+
+    @Benchmark
+    public int set() {
+        projection.set(items);
+        return projection.get().size();
+    }
+
+    @Benchmark
+    public int filter() {
+        toggle = !toggle;
+        projection.filter(toggle ? NOT_THIRD : EVEN);
+        return projection.get().size();
+    }
+
+    @Benchmark
+    public int sort() {
+        toggle = !toggle;
+        projection.sorter = toggle ? DESCENDING : ASCENDING;
+        projection.reset();
+        return projection.get().size();
+    }
+
+    @Benchmark
+    public int rebuild() {
+        projection.reset();
+        return projection.get().size();
+    }
+
+    /**
+     * Rebuilds with a keyed sorter, whose keys are cached after the first rebuild
+     */
+    @Benchmark
+    public int rebuildKeyed() {
+        projection.sorter = KEYED;
+        projection.reset();
+        return projection.get().size();
+    }
+
+    @Benchmark
+    public int rebuildCollated() {
+        projection.sorter = COLLATED;
+        projection.reset();
+        return projection.get().size();
+    }
+
+    /**
+     * Rebuilds sorting by cached collation keys rather than collating names on every comparison
+     */
+    @Benchmark
+    public int rebuildCollationKeyed() {
+        projection.sorter = COLLATION_KEYED;
+        projection.reset();
+        return projection.get().size();
+    }
+
+    /**
+     * Rebuilds only the first 200 items, selecting them without sorting the others
+     */
+    @Benchmark
+    public int rebuildLimited() {
+        projection.reset();
+        return projection.get().size();
+    }
+
+    /**
+     * Adds to the first 200 items, which is cheaper than adding to all of them as most new items
+     * belong after the end
+     */
+    @Benchmark
+    public long addLimited() {
+        projection.add(Collections.singletonList(new Item(random.nextInt(size))));
+        return counter.count;
+    }
+
+    /**
+     * Shows 200 more items after the first 200, only sorting the ones being added. The limit is
+     * cut back to 200 first so every invocation loads the same items, which only truncates the
+     * projection, so almost all the time is spent finding the next ones.
+     */
+    @Benchmark
+    public int loadMoreLimited() {
+        projection.limit(200);
+        projection.limit(400);
+        return projection.get().size();
+    }
+
+    @Benchmark
+    public long updateSingle() {
+        Item item = randomItem();
+        item.key = random.nextInt(size);
+        projection.update(item, null);
+        return counter.count;
+    }
+
+    /**
+     * Removes 100 items, then puts them back so the projection doesn't run out. Adding is much
+     * cheaper than removing, as it doesn't compact the dataset.
+     */
+    @Benchmark
+    public long removeMulti() {
+        List<Item> toRemove = new ArrayList<>(100);
+        while(toRemove.size() < 100) {
+            Item item = randomItem();
+            if(!toRemove.contains(item)) toRemove.add(item);
+        }
+        projection.remove(toRemove);
+        projection.add(toRemove);
+        return counter.count;
+    }
+
+    /**
+     * Swiping an item updates it without changing it, so it's put back where it was
+     */
+    @Benchmark
+    public long swipeUpdate() {
+        projection.update(randomItem(), null);
+        return counter.count;
+    }
+
+    /**
+     * Searches by checking every item, switching between queries that don't narrow each other
+     */
+    @Benchmark
+    public int searchScan() {
+        toggle = !toggle;
+        projection.filter(scan(toggle ? "123" : "456"));
+        return projection.get().size();
+    }
+
+    /**
+     * Searches the same queries by looking them up in the text index
+     */
+    @Benchmark
+    public int searchIndexed() {
+        toggle = !toggle;
+        projection.filter(projection.index.query(toggle ? "123" : "456"));
+        return projection.get().size();
+    }
+}
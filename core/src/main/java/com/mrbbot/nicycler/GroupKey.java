@@ -0,0 +1,16 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for getting the group a value belongs to, such as the day it happened on or the first
+ * letter of a name
+ * @param <D> type of values to group
+ * @param <K> type of the group keys, which are compared with {@code equals}
+ */
+public interface GroupKey<D, K> {
+    /**
+     * Function for getting the group of a value
+     * @param d value to get the group of
+     * @return key of the group
+     */
+    K group(D d);
+}
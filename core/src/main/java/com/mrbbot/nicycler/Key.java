@@ -0,0 +1,15 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for getting a comparable object to sort values by, such as a {@code CollationKey}
+ * @param <D> type of values to get keys of
+ * @param <K> type of the keys
+ */
+public interface Key<D, K extends Comparable<? super K>> {
+    /**
+     * Function for getting the key of a value
+     * @param d value to get the key of
+     * @return key to sort by
+     */
+    K key(D d);
+}
@@ -0,0 +1,169 @@
+package com.mrbbot.nicycler;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Comparator that sorts by keys extracted from each item, for example
+ * {@code KeyedSorter.byLong(timestamp).thenByKey(collatedName)}. When a nicycler is sorted with
+ * one, each item's keys are extracted once and cached, and only extracted again when the item is
+ * updated, so sorting never calls getters or compares anything more expensive than the keys.
+ * Keyed sorters are immutable, each method returns a new one.
+ * @param <D> type of values to sort
+ */
+public final class KeyedSorter<D> implements Comparator<D> {
+    private final LongKey<D>[] longKeys;
+    private final Key<D, ?>[] keys;
+    private final boolean[] descending;
+    private final boolean hasKeys;
+
+    private KeyedSorter(LongKey<D>[] longKeys, Key<D, ?>[] keys, boolean[] descending) {
+        this.longKeys = longKeys;
+        this.keys = keys;
+        this.descending = descending;
+        boolean hasKeys = false;
+        for(Key<D, ?> key : keys) hasKeys |= key != null;
+        this.hasKeys = hasKeys;
+    }
+
+    /**
+     * Creates a sorter that sorts by a number in ascending order
+     * @param key function getting the number to sort by
+     * @param <D> type of values to sort
+     * @return sorter
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <D> KeyedSorter<D> byLong(LongKey<D> key) {
+        return new KeyedSorter<>(new LongKey[] { key }, new Key[1], new boolean[1]);
+    }
+
+    /**
+     * Creates a sorter that sorts by a comparable object in ascending order
+     * @param key function getting the object to sort by
+     * @param <D> type of values to sort
+     * @return sorter
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <D> KeyedSorter<D> byKey(Key<D, ?> key) {
+        return new KeyedSorter<>(new LongKey[1], new Key[] { key }, new boolean[1]);
+    }
+
+    /**
+     * Creates a sorter that sorts items this one considers equal by a number in ascending order
+     * @param key function getting the number to sort by
+     * @return sorter
+     */
+    public KeyedSorter<D> thenByLong(LongKey<D> key) {
+        return then(key, null);
+    }
+
+    /**
+     * Creates a sorter that sorts items this one considers equal by a comparable object in
+     * ascending order
+     * @param key function getting the object to sort by
+     * @return sorter
+     */
+    public KeyedSorter<D> thenByKey(Key<D, ?> key) {
+        return then(null, key);
+    }
+
+    /**
+     * Creates a sorter that sorts by the last key in descending order instead
+     * @return sorter
+     */
+    public KeyedSorter<D> descending() {
+        boolean[] descending = this.descending.clone();
+        descending[descending.length - 1] = !descending[descending.length - 1];
+        return new KeyedSorter<>(longKeys, keys, descending);
+    }
+
+    private KeyedSorter<D> then(LongKey<D> longKey, Key<D, ?> key) {
+        int size = size() + 1;
+        LongKey<D>[] longKeys = Arrays.copyOf(this.longKeys, size);
+        Key<D, ?>[] keys = Arrays.copyOf(this.keys, size);
+        longKeys[size - 1] = longKey;
+        keys[size - 1] = key;
+        return new KeyedSorter<>(longKeys, keys, Arrays.copyOf(descending, size));
+    }
+
+    /**
+     * @return number of keys
+     */
+    int size() {
+        return longKeys.length;
+    }
+
+    /**
+     * @return whether any keys are objects, which are stored separately to numbers
+     */
+    boolean hasKeys() {
+        return hasKeys;
+    }
+
+    /**
+     * @return whether the only key is a number, so keys can be compared as a single array
+     */
+    boolean isSingleLong() {
+        return longKeys.length == 1 && longKeys[0] != null;
+    }
+
+    /**
+     * Extracts an item's keys
+     * @param d item to extract the keys of
+     * @param longs array to put numeric keys in, at their index in the chain
+     * @param objects array to put object keys in, at their index in the chain, or {@code null} if
+     * there aren't any
+     */
+    void extract(D d, long[] longs, Object[] objects) {
+        for(int i = 0; i < longKeys.length; i++) {
+            if(longKeys[i] != null) longs[i] = longKeys[i].key(d);
+            else objects[i] = keys[i].key(d);
+        }
+    }
+
+    /**
+     * Compares two items by their extracted keys
+     */
+    @SuppressWarnings("unchecked")
+    int compare(long[] aLongs, Object[] aObjects, long[] bLongs, Object[] bObjects) {
+        for(int i = 0; i < longKeys.length; i++) {
+            int result;
+            if(longKeys[i] != null) {
+                long a = aLongs[i], b = bLongs[i];
+                result = a < b ? -1 : (a == b ? 0 : 1);
+            } else {
+                result = ((Comparable<Object>) aObjects[i]).compareTo(bObjects[i]);
+            }
+            if(result != 0) return descending[i] ? -result : result;
+        }
+        return 0;
+    }
+
+    /**
+     * @param i index of the key in the chain
+     * @return whether the key is sorted in descending order
+     */
+    boolean isDescending(int i) {
+        return descending[i];
+    }
+
+    /**
+     * Compares two items, extracting their keys as it goes. This is only used when sorting without
+     * a cache, such as on a background thread.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(D a, D b) {
+        for(int i = 0; i < longKeys.length; i++) {
+            int result;
+            if(longKeys[i] != null) {
+                long aKey = longKeys[i].key(a), bKey = longKeys[i].key(b);
+                result = aKey < bKey ? -1 : (aKey == bKey ? 0 : 1);
+            } else {
+                result = ((Comparable<Object>) keys[i].key(a)).compareTo(keys[i].key(b));
+            }
+            if(result != 0) return descending[i] ? -result : result;
+        }
+        return 0;
+    }
+}
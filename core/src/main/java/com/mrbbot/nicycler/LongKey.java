@@ -0,0 +1,14 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for getting a number to sort values by, such as a timestamp
+ * @param <D> type of values to get keys of
+ */
+public interface LongKey<D> {
+    /**
+     * Function for getting the key of a value
+     * @param d value to get the key of
+     * @return key to sort by
+     */
+    long key(D d);
+}
@@ -0,0 +1,16 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for filters that can tell when they only accept a subset of what another filter
+ * accepts, for example a search for "ab" compared to a search for "a". When the nicycler is
+ * filtered with one of these, only the items accepted by the narrower filter are checked again.
+ * @param <D> type of values to filter
+ */
+public interface NarrowingFilter<D> extends Filter<D> {
+    /**
+     * Function for checking whether this filter narrows another
+     * @param other filter to compare against
+     * @return whether every value accepted by this filter is also accepted by {@param other}
+     */
+    boolean narrows(Filter<D> other);
+}
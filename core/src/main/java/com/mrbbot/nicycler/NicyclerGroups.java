@@ -0,0 +1,295 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts a header before each run of neighbouring items in the projection that are in the same
+ * group, translating the projection's notifications into positions that include the headers.
+ * <p>
+ * Group keys are kept for every projected item as the observer last saw them, along with the
+ * sorted positions of the items that start a group. The position of group {@code k}'s header is
+ * {@code starts[k] + k}, so positions are mapped with a binary search over the groups. A change
+ * only updates the keys it touches and shifts the starts after it, then adds or removes the
+ * headers of the items either side of it.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerGroups<D> implements NicyclerProjection.Observer {
+    private final NicyclerProjection<D> projection;
+    private final GroupKey<D, ?> key;
+    private final NicyclerProjection.Observer observer;
+
+    private final ArrayList<Object> keys;
+    private int[] starts;
+    private int groups;
+
+    /**
+     * Header for a group, as it appears in a flattened list
+     */
+    static final class Header {
+        final Object key;
+
+        Header(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Header && equal(key, ((Header) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key == null ? 0 : key.hashCode();
+        }
+    }
+
+    /**
+     * @param projection projection to group
+     * @param key function getting the group of an item
+     * @param observer receives changes with positions that include the headers
+     */
+    NicyclerGroups(NicyclerProjection<D> projection, GroupKey<D, ?> key, NicyclerProjection.Observer observer) {
+        this.projection = projection;
+        this.key = key;
+        this.observer = observer;
+        this.keys = new ArrayList<>();
+        this.starts = new int[16];
+        rebuild();
+    }
+
+    /**
+     * Regroups the whole projection without notifying the observer
+     */
+    void rebuild() {
+        List<D> projected = projection.get();
+        keys.clear();
+        groups = 0;
+        for(int i = 0; i < projected.size(); i++) {
+            keys.add(key.group(projected.get(i)));
+            if(i == 0 || !equal(keys.get(i - 1), keys.get(i))) addStart(groups, i);
+        }
+    }
+
+    /**
+     * Flattens items into a list with a {@code Header} before each group. This doesn't touch any
+     * state, so can be called from a background thread.
+     * @param items filtered and sorted items
+     * @param key function getting the group of an item
+     * @return items and headers
+     */
+    static <D> List<Object> flatten(List<D> items, GroupKey<D, ?> key) {
+        List<Object> flattened = new ArrayList<>();
+        Object previous = null;
+        for(int i = 0; i < items.size(); i++) {
+            Object group = key.group(items.get(i));
+            if(i == 0 || !equal(previous, group)) flattened.add(new Header(group));
+            flattened.add(items.get(i));
+            previous = group;
+        }
+        return flattened;
+    }
+
+    /**
+     * @return function getting the group of an item
+     */
+    GroupKey<D, ?> key() {
+        return key;
+    }
+
+    /**
+     * @return number of items and headers
+     */
+    int count() {
+        return keys.size() + groups;
+    }
+
+    /**
+     * Finds the group whose header is at or before a position
+     * @param position position including headers
+     * @return index of the group
+     */
+    private int groupAt(int position) {
+        int low = 0, high = groups - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(starts[mid] + mid <= position) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * @param position position including headers
+     * @return whether there's a header at the position
+     */
+    boolean isHeader(int position) {
+        int group = groupAt(position);
+        return starts[group] + group == position;
+    }
+
+    /**
+     * @param position position of a header
+     * @return key of the header's group
+     */
+    Object header(int position) {
+        return keys.get(starts[groupAt(position)]);
+    }
+
+    /**
+     * @param position position including headers
+     * @return position of the item in the projection, or -1 if there's a header there
+     */
+    int itemPosition(int position) {
+        int group = groupAt(position);
+        int start = starts[group] + group;
+        return start == position ? -1 : position - group - 1;
+    }
+
+    /**
+     * @param item position in the projection
+     * @return position including headers
+     */
+    int position(int item) {
+        return item + startsUpTo(item);
+    }
+
+    /**
+     * Counts the groups starting at or before an item
+     */
+    private int startsUpTo(int item) {
+        int low = 0, high = groups;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(starts[mid] <= item) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private boolean isStart(int item) {
+        int group = startsUpTo(item) - 1;
+        return group >= 0 && starts[group] == item;
+    }
+
+    private void addStart(int group, int item) {
+        if(groups == starts.length) {
+            int[] grown = new int[groups + (groups >> 1) + 1];
+            System.arraycopy(starts, 0, grown, 0, groups);
+            starts = grown;
+        }
+        System.arraycopy(starts, group, starts, group + 1, groups - group);
+        starts[group] = item;
+        groups++;
+    }
+
+    private void removeStart(int group) {
+        System.arraycopy(starts, group + 1, starts, group, groups - group - 1);
+        groups--;
+    }
+
+    /**
+     * Shifts the starts of the groups from an item onwards
+     */
+    private void shift(int from, int by) {
+        for(int group = startsUpTo(from - 1); group < groups; group++) starts[group] += by;
+    }
+
+    /**
+     * Adds or removes the header before an item so it matches whether the item starts a group
+     * @return whether a header was added or removed
+     */
+    private boolean fix(int item) {
+        if(item < 0 || item >= keys.size()) return false;
+        boolean start = item == 0 || !equal(keys.get(item - 1), keys.get(item));
+        if(start == isStart(item)) return false;
+        int group = startsUpTo(item);
+        if(start) {
+            addStart(group, item);
+            observer.onInserted(item + group, 1);
+        } else {
+            removeStart(group - 1);
+            observer.onRemoved(item + group - 1, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        // The items go straight after the one before them, before any header of the one after
+        int at = position == 0 ? 0 : position(position - 1) + 1;
+        List<D> projected = projection.get();
+        for(int i = 0; i < count; i++) keys.add(position + i, key.group(projected.get(position + i)));
+        shift(position, count);
+        observer.onInserted(at, count);
+        for(int i = position; i <= position + count; i++) fix(i);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        // The items and the headers of any groups starting among them are next to each other.
+        // If the first group carries on after them, its header stays for the rest of it.
+        int first = startsUpTo(position - 1);
+        int last = startsUpTo(position + count - 1);
+        int after = position + count;
+        if(first < last && starts[first] == position && after < keys.size() && !isStart(after) && equal(keys.get(position), keys.get(after))) first++;
+        observer.onRemoved(position + first, count + last - first);
+        System.arraycopy(starts, last, starts, first, groups - last);
+        groups -= last - first;
+        keys.subList(position, position + count).clear();
+        shift(position + count, -count);
+        fix(position);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        // Take the item out of its group, move it, then sort out the headers around both ends
+        if(isStart(fromPosition)) {
+            int group = startsUpTo(fromPosition) - 1;
+            removeStart(group);
+            observer.onRemoved(fromPosition + group, 1);
+        }
+        int from = position(fromPosition);
+        Object moved = keys.remove(fromPosition);
+        shift(fromPosition + 1, -1);
+        int to = toPosition == 0 ? 0 : position(toPosition - 1) + 1;
+        keys.add(toPosition, moved);
+        shift(toPosition, 1);
+        observer.onMoved(from, to);
+
+        fix(fromPosition < toPosition ? fromPosition : fromPosition + 1);
+        fix(toPosition);
+        fix(toPosition + 1);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        List<D> projected = projection.get();
+        for(int i = position; i < position + count; i++) {
+            Object group = key.group(projected.get(i));
+            Object previous = keys.set(i, group);
+            // A header that stays put still shows the key, so rebind it if that changed
+            if(!fix(i) && !equal(previous, group) && isStart(i)) observer.onChanged(position(i) - 1, 1, null);
+        }
+        fix(position + count);
+
+        // Headers may split the range, so notify each run of items between them
+        int start = position;
+        for(int i = position + 1; i <= position + count; i++) {
+            if(i == position + count || isStart(i)) {
+                observer.onChanged(position(start), i - start, payload);
+                start = i;
+            }
+        }
+    }
+
+    @Override
+    public void onReset() {
+        rebuild();
+        observer.onReset();
+    }
+
+    static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
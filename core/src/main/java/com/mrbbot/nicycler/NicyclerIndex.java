@@ -0,0 +1,349 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the lower-cased text of each item in the dataset, for answering substring searches
+ * without checking every item.
+ * <p>
+ * Each item gets an id, and every three-character sequence (trigram) in its text maps to the
+ * sorted ids of the items containing it. A search looks up the query's rarest trigram and only
+ * checks the text of the items containing that. Removing an item just clears its id, so ids are
+ * only reused once the index is compacted. Updated items get a new id.
+ * <p>
+ * The index can be released to save memory, in which case it's rebuilt from the dataset the next
+ * time it's searched.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerIndex<D> {
+    private static final int GRAM = 3;
+
+    private final TextKey<D> key;
+    private final List<D> dataset;
+    private boolean built;
+    private final IdentityHashMap<D, Integer> ids = new IdentityHashMap<>();
+    private Object[] items;
+    private String[] texts;
+    private int nextId;
+
+    // Open-addressed map from packed trigrams to their postings
+    private long[] grams;
+    private int[][] postings;
+    private int[] lengths;
+    private int gramCount;
+
+    private char[] buffer = new char[64];
+
+    /**
+     * @param key function getting the text of an item
+     * @param dataset items to rebuild the index from if it's released
+     */
+    NicyclerIndex(TextKey<D> key, List<D> dataset) {
+        this.key = key;
+        this.dataset = dataset;
+        release();
+    }
+
+    /**
+     * Searches for items containing text, which is matched ignoring case. Items in the index are
+     * filtered with it by looking them up, rather than checking every one.
+     */
+    static final class Query<D> implements NarrowingFilter<D> {
+        final NicyclerIndex<D> index;
+        final String query;
+
+        Query(NicyclerIndex<D> index, String query) {
+            this.index = index;
+            this.query = query;
+        }
+
+        @Override
+        public boolean accept(D d) {
+            String text = index.text(d);
+            return text != null && text.contains(query);
+        }
+
+        @Override
+        public boolean narrows(Filter<D> other) {
+            return other instanceof Query && ((Query) other).index == index && query.contains(((Query) other).query);
+        }
+
+        /**
+         * Looks up the matching items now, so they can be filtered on another thread while the
+         * index is changing
+         * @return filter accepting the items that currently match
+         */
+        Filter<D> snapshot() {
+            ArrayList<D> matches = new ArrayList<>();
+            index.search(query, matches);
+            final Set<D> accepted = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>(matches.size()));
+            accepted.addAll(matches);
+            return new Filter<D>() {
+                @Override
+                public boolean accept(D d) {
+                    return accepted.contains(d);
+                }
+            };
+        }
+    }
+
+    /**
+     * @param query text to search for
+     * @return filter accepting items containing the text
+     */
+    Query<D> query(CharSequence query) {
+        return new Query<>(this, normalise(query));
+    }
+
+    /**
+     * Lower-cases text, reusing a buffer so only the resulting string is allocated
+     */
+    private String normalise(CharSequence text) {
+        if(text == null) return "";
+        int length = text.length();
+        if(buffer.length < length) buffer = new char[Math.max(length, buffer.length * 2)];
+        for(int i = 0; i < length; i++) buffer[i] = Character.toLowerCase(text.charAt(i));
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * @param d item in the index
+     * @return the item's lower-cased text, or {@code null} if it isn't in the index
+     */
+    String text(D d) {
+        if(!built) set(dataset);
+        Integer id = ids.get(d);
+        return id == null ? null : texts[id];
+    }
+
+    /**
+     * Replaces everything in the index
+     * @param dataset items to index
+     */
+    void set(Collection<? extends D> dataset) {
+        built = true;
+        ids.clear();
+        nextId = 0;
+        if(items.length < dataset.size()) {
+            items = new Object[dataset.size()];
+            texts = new String[dataset.size()];
+        } else {
+            for(int i = 0; i < items.length; i++) {
+                items[i] = null;
+                texts[i] = null;
+            }
+        }
+        for(int slot = 0; slot < postings.length; slot++) {
+            postings[slot] = null;
+            lengths[slot] = 0;
+        }
+        gramCount = 0;
+        for(D d : dataset) add(d);
+    }
+
+    /**
+     * Adds an item to the index, unless it's already there because the index was rebuilt from a
+     * dataset the item had been added to
+     * @param d item to add
+     */
+    void add(D d) {
+        if(built && !ids.containsKey(d)) add(d, normalise(key.text(d)));
+    }
+
+    private void add(D d, String text) {
+        if(nextId == items.length) {
+            if(ids.size() < nextId / 2) {
+                compact();
+            } else {
+                int size = nextId + (nextId >> 1) + 1;
+                Object[] grownItems = new Object[size];
+                String[] grownTexts = new String[size];
+                System.arraycopy(items, 0, grownItems, 0, nextId);
+                System.arraycopy(texts, 0, grownTexts, 0, nextId);
+                items = grownItems;
+                texts = grownTexts;
+            }
+        }
+        int id = nextId++;
+        ids.put(d, id);
+        items[id] = d;
+        texts[id] = text;
+        for(int i = 0; i + GRAM <= text.length(); i++) {
+            int slot = slot(gram(text, i), true);
+            int length = lengths[slot];
+            // Ids only ever increase, so a trigram repeated in this text is already at the end
+            if(length > 0 && postings[slot][length - 1] == id) continue;
+            if(length == postings[slot].length) {
+                int[] grown = new int[length * 2];
+                System.arraycopy(postings[slot], 0, grown, 0, length);
+                postings[slot] = grown;
+            }
+            postings[slot][length] = id;
+            lengths[slot] = length + 1;
+        }
+    }
+
+    /**
+     * Removes an item from the index
+     * @param d item to remove
+     */
+    void remove(D d) {
+        if(!built) return;
+        Integer id = ids.remove(d);
+        if(id == null) return;
+        items[id] = null;
+        texts[id] = null;
+    }
+
+    /**
+     * Re-reads an item's text after it's changed
+     * @param d item to update
+     */
+    void update(D d) {
+        if(!built) return;
+        Integer id = ids.get(d);
+        String text = normalise(key.text(d));
+        if(id != null && texts[id].equals(text)) return;
+        remove(d);
+        add(d, text);
+    }
+
+    /**
+     * Drops everything in the index until it's next needed
+     */
+    void release() {
+        built = false;
+        ids.clear();
+        items = new Object[16];
+        texts = new String[16];
+        nextId = 0;
+        grams = new long[64];
+        postings = new int[64][];
+        lengths = new int[64];
+        gramCount = 0;
+    }
+
+    /**
+     * @return function getting the text of an item
+     */
+    TextKey<D> key() {
+        return key;
+    }
+
+    /**
+     * @return number of items in the index
+     */
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return number of distinct trigrams in the index
+     */
+    int gramCount() {
+        return gramCount;
+    }
+
+    /**
+     * Rebuilds the postings without the ids of removed items
+     */
+    @SuppressWarnings("unchecked")
+    private void compact() {
+        Object[] oldItems = items;
+        String[] oldTexts = texts;
+        int oldCount = nextId;
+        items = new Object[oldItems.length];
+        texts = new String[oldTexts.length];
+        ids.clear();
+        nextId = 0;
+        for(int slot = 0; slot < postings.length; slot++) lengths[slot] = 0;
+        for(int id = 0; id < oldCount; id++) {
+            if(oldItems[id] != null) add((D) oldItems[id], oldTexts[id]);
+        }
+    }
+
+    /**
+     * Finds the items containing text
+     * @param query lower-cased text to search for
+     * @param into list to add the matching items to, in the order they were indexed
+     */
+    @SuppressWarnings("unchecked")
+    void search(String query, List<D> into) {
+        if(!built) set(dataset);
+        if(query.length() < GRAM) {
+            // Short queries match too much for the index to help
+            for(int id = 0; id < nextId; id++) {
+                if(texts[id] != null && texts[id].contains(query)) into.add((D) items[id]);
+            }
+            return;
+        }
+
+        int rarest = -1;
+        for(int i = 0; i + GRAM <= query.length(); i++) {
+            int slot = slot(gram(query, i), false);
+            if(slot == -1) return;
+            if(rarest == -1 || lengths[slot] < lengths[rarest]) rarest = slot;
+        }
+        int[] posting = postings[rarest];
+        for(int i = 0, length = lengths[rarest]; i < length; i++) {
+            int id = posting[i];
+            if(texts[id] != null && texts[id].contains(query)) into.add((D) items[id]);
+        }
+    }
+
+    private static long gram(String text, int at) {
+        return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+    }
+
+    private static int hash(long gram) {
+        return (int) ((gram * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Finds the slot of a trigram in the postings map
+     * @param gram packed trigram
+     * @param create whether to add the trigram if it isn't there
+     * @return slot, or -1 if it isn't there and shouldn't be created
+     */
+    private int slot(long gram, boolean create) {
+        int mask = grams.length - 1;
+        int slot = hash(gram) & mask;
+        while(postings[slot] != null) {
+            if(grams[slot] == gram) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if(!create) return -1;
+        if((gramCount + 1) * 4 > grams.length * 3) {
+            grow();
+            return slot(gram, true);
+        }
+        grams[slot] = gram;
+        postings[slot] = new int[4];
+        lengths[slot] = 0;
+        gramCount++;
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldGrams = grams;
+        int[][] oldPostings = postings;
+        int[] oldLengths = lengths;
+        grams = new long[oldGrams.length * 2];
+        postings = new int[oldGrams.length * 2][];
+        lengths = new int[oldGrams.length * 2];
+        int mask = grams.length - 1;
+        for(int i = 0; i < oldGrams.length; i++) {
+            if(oldPostings[i] == null) continue;
+            int slot = hash(oldGrams[i]) & mask;
+            while(postings[slot] != null) slot = (slot + 1) & mask;
+            grams[slot] = oldGrams[i];
+            postings[slot] = oldPostings[i];
+            lengths[slot] = oldLengths[i];
+        }
+    }
+}
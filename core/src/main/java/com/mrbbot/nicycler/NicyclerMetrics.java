@@ -0,0 +1,43 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Receives measurements of the work a nicycler does, for example to report them to telemetry.
+ * Nothing is measured unless one of these is set, so leaving the call to {@code setMetrics} in
+ * production builds costs nothing when it's passed {@code null}.
+ * {@code NicyclerMetricsRecorder} can be used to collect them into histograms.
+ */
+public interface NicyclerMetrics {
+    /**
+     * Called when the filtered and sorted dataset is rebuilt. This may be called on a background
+     * thread when diffing asynchronously.
+     * @param items number of items that were filtered
+     * @param projected number of items that matched the filter
+     * @param filterNanos time spent filtering in nanoseconds
+     * @param sortNanos time spent sorting in nanoseconds
+     */
+    void onProject(int items, int projected, long filterNanos, long sortNanos);
+
+    /**
+     * Called when the recycler view is notified of a change
+     * @param full whether everything was refreshed, rather than a range of items
+     */
+    void onNotify(boolean full);
+
+    /**
+     * Called after a view is created
+     * @param nanos time spent in {@code onCreate} in nanoseconds
+     */
+    void onCreate(long nanos);
+
+    /**
+     * Called after an item is bound
+     * @param nanos time spent binding in nanoseconds
+     */
+    void onBind(long nanos);
+
+    /**
+     * Called after the background of an item being swiped is drawn
+     * @param nanos time spent drawing in nanoseconds
+     */
+    void onSwipeDraw(long nanos);
+}
@@ -0,0 +1,151 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Filters and sorts large datasets by splitting the work across multiple threads. The results are
+ * identical to filtering and sorting on a single thread: accepted items keep their original order
+ * and the merge sort is stable.
+ */
+final class NicyclerParallel {
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private int count;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nicycler-parallel-" + count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private NicyclerParallel() { }
+
+    /**
+     * Filters and sorts items across multiple threads, blocking until it's done
+     * @param dataset items to project
+     * @param filter filter to match against
+     * @param sorter comparator to compare items
+     * @param metrics receives how long filtering and sorting took, or {@code null} to not measure
+     * @return filtered and sorted items
+     */
+    @SuppressWarnings("unchecked")
+    static <D> ArrayList<D> project(final List<D> dataset, final Filter<D> filter, final Comparator<D> sorter, NicyclerMetrics metrics) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        Object[] items = filter == null ? dataset.toArray() : filter(dataset, filter);
+        long filtered = metrics == null ? 0 : System.nanoTime();
+        if(sorter != null) sort(items, sorter);
+
+        ArrayList<D> projected = new ArrayList<>(items.length);
+        for(Object item : items) projected.add((D) item);
+        if(metrics != null) metrics.onProject(dataset.size(), projected.size(), filtered - start, System.nanoTime() - filtered);
+        return projected;
+    }
+
+    private static <D> Object[] filter(final List<D> dataset, final Filter<D> filter) {
+        List<Future<ArrayList<D>>> chunks = new ArrayList<>(THREADS);
+        int size = dataset.size();
+        for(int i = 0; i < THREADS; i++) {
+            final int start = (int) ((long) size * i / THREADS);
+            final int end = (int) ((long) size * (i + 1) / THREADS);
+            chunks.add(POOL.submit(new Callable<ArrayList<D>>() {
+                @Override
+                public ArrayList<D> call() {
+                    ArrayList<D> accepted = new ArrayList<>();
+                    for(int j = start; j < end; j++) {
+                        D d = dataset.get(j);
+                        if(filter.accept(d)) accepted.add(d);
+                    }
+                    return accepted;
+                }
+            }));
+        }
+
+        ArrayList<D> accepted = new ArrayList<>();
+        for(Future<ArrayList<D>> chunk : chunks) accepted.addAll(await(chunk));
+        return accepted.toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <D> void sort(final Object[] items, final Comparator<D> sorter) {
+        int runs = Math.min(THREADS, Math.max(1, items.length));
+        final int[] bounds = new int[runs + 1];
+        for(int i = 0; i <= runs; i++) bounds[i] = (int) ((long) items.length * i / runs);
+
+        List<Future<?>> tasks = new ArrayList<>(runs);
+        for(int i = 0; i < runs; i++) {
+            final int start = bounds[i], end = bounds[i + 1];
+            tasks.add(POOL.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Arrays.sort(items, start, end, (Comparator<Object>) sorter);
+                }
+            }));
+        }
+        for(Future<?> task : tasks) await(task);
+
+        // Merge neighbouring runs in parallel until there's only one left
+        Object[] source = items, target = new Object[items.length];
+        for(int width = 1; width < runs; width *= 2) {
+            tasks.clear();
+            for(int i = 0; i < runs; i += 2 * width) {
+                final int start = bounds[i];
+                final int middle = bounds[Math.min(i + width, runs)];
+                final int end = bounds[Math.min(i + 2 * width, runs)];
+                final Object[] from = source, to = target;
+                tasks.add(POOL.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        merge(from, to, start, middle, end, sorter);
+                    }
+                }));
+            }
+            for(Future<?> task : tasks) await(task);
+            Object[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if(source != items) System.arraycopy(source, 0, items, 0, items.length);
+    }
+
+    /**
+     * Merges two sorted runs, taking from the left run first when items are equal to keep the
+     * sort stable
+     */
+    @SuppressWarnings("unchecked")
+    private static <D> void merge(Object[] from, Object[] to, int start, int middle, int end, Comparator<D> sorter) {
+        int left = start, right = middle, out = start;
+        while(left < middle && right < end) {
+            if(sorter.compare((D) from[right], (D) from[left]) < 0) to[out++] = from[right++];
+            else to[out++] = from[left++];
+        }
+        while(left < middle) to[out++] = from[left++];
+        while(right < end) to[out++] = from[right++];
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while projecting", e);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if(cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,1375 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The filtered and sorted view of the dataset. Mutations are applied incrementally where possible
+ * and reported to an {@code Observer} using positions in the projection.
+ * <p>
+ * Items are tracked by identity. Each one is given a sequence number when it's added, which breaks
+ * ties between items the sorter considers equal (matching the stable {@code Collections.sort}) and
+ * orders the projection when there's no sorter. This makes the projection totally ordered, so
+ * items can be found with a binary search.
+ * <p>
+ * When the sorter is a {@code KeyedSorter}, each item's keys are cached in its index entry, and
+ * only extracted again when it's updated or the sorter changes.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerProjection<D> {
+    /**
+     * Receives changes to the projection
+     */
+    interface Observer {
+        void onInserted(int position, int count);
+        void onRemoved(int position, int count);
+        void onMoved(int fromPosition, int toPosition);
+        void onChanged(int position, int count, Object payload);
+        void onReset();
+    }
+
+    /**
+     * Index information for an item in the dataset
+     */
+    private static class Entry {
+        final long seq;
+        /**
+         * Last known position in the projection, only trusted if it's before {@code clean} and the
+         * item is actually there
+         */
+        int position = -1;
+        /**
+         * Sorter the keys were extracted for, or {@code null} if they need extracting again
+         */
+        KeyedSorter<?> keyedBy;
+        long[] longKeys;
+        Object[] keys;
+
+        Entry(long seq) {
+            this.seq = seq;
+        }
+    }
+
+    ArrayList<D> dataset;
+    /**
+     * Whether the dataset belongs to a store, which changes it before telling the projection
+     */
+    private boolean shared;
+    /**
+     * Whether the store has stopped passing changes on, so the dataset has to be loaded again
+     */
+    private boolean suspended;
+    Filter<D> filter;
+    Comparator<D> sorter;
+
+    private final Observer observer;
+    private ArrayList<D> cache;
+    /**
+     * Discarded projection kept to build the next one in, so rebuilding doesn't allocate
+     */
+    private ArrayList<D> spare;
+    /**
+     * Buffers reused between sorts, grown to fit the largest projection sorted so far
+     */
+    private Object[] sortItems, sortItemBuffer;
+    private int[] sortOrder, sortOrderBuffer;
+    private long[] sortKeys, sortKeyBuffer;
+    /**
+     * Collections reused between calls to {@code dispatchDifferences}
+     */
+    private Set<D> diffRemaining;
+    private ArrayList<D> diffWork;
+    /**
+     * Incremented whenever the projection changes, so background work can detect it's stale
+     */
+    int modCount;
+
+    private final IdentityHashMap<D, Entry> entries;
+    /**
+     * Items left out of the projection whatever the filter says, such as ones that have just been
+     * swiped away
+     */
+    private final Set<D> hidden;
+    private long nextSeq;
+    /**
+     * Positions before this index are known to be correct
+     */
+    private int clean;
+
+    /**
+     * Minimum dataset size to filter and sort across multiple threads, or 0 to never do so
+     */
+    int parallelThreshold;
+    /**
+     * Receives rebuild timings, or {@code null} to not measure them
+     */
+    NicyclerMetrics metrics;
+    /**
+     * Index of the items' text for searching, or {@code null} if they aren't indexed
+     */
+    NicyclerIndex<D> index;
+    /**
+     * Maximum number of items in the projection, which keeps the first ones in order, or 0 for no
+     * limit
+     */
+    private int limit;
+    /**
+     * Fraction of the projection that can be removed or updated at once before it's refreshed
+     * instead of notifying the observer of each change
+     */
+    float refreshFraction = 0.5f;
+    /**
+     * Number of changes in a batch past which the whole projection is refreshed instead
+     */
+    int batchRefreshThreshold = 500;
+    private int batchDepth;
+    private int batchChanges;
+    private boolean batchReset;
+    private Map<D, Object> batchUpdated;
+
+    /**
+     * Maximum number of earlier projections to keep for when a narrowing filter is widened again
+     */
+    private static final int MAX_HISTORY = 8;
+    private final ArrayList<Refinement<D>> history;
+
+    NicyclerProjection(Observer observer) {
+        this.dataset = new ArrayList<>();
+        this.observer = observer;
+        this.entries = new IdentityHashMap<>();
+        this.hidden = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        this.history = new ArrayList<>();
+        this.diffRemaining = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        this.diffWork = new ArrayList<>();
+    }
+
+    /**
+     * An earlier projection and the filter that produced it
+     */
+    private static class Refinement<D> {
+        final Filter<D> filter;
+        final ArrayList<D> projected;
+
+        Refinement(Filter<D> filter, ArrayList<D> projected) {
+            this.filter = filter;
+            this.projected = projected;
+        }
+    }
+
+    /**
+     * Gets the projection, rebuilding it from the dataset if it's been invalidated
+     * @return filtered and sorted items
+     */
+    List<D> get() {
+        if(cache != null) return cache;
+        if(suspended) {
+            // Something needs the projection before the store resumed it
+            suspended = false;
+            load(dataset);
+        }
+        cache = rebuild();
+        clean = 0;
+        return cache;
+    }
+
+    /**
+     * Filters and sorts the dataset into the spare list, sorting in place with reused buffers, and
+     * using cached keys if the sorter is keyed. If the projection is limited, only the items
+     * within the limit are sorted.
+     * @return filtered and sorted items
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<D> rebuild() {
+        ArrayList<D> projected = spare();
+        boolean indexed = index != null && filter instanceof NicyclerIndex.Query && ((NicyclerIndex.Query) filter).index == index;
+        if(limit == 0 && !indexed && parallelThreshold > 0 && dataset.size() >= parallelThreshold && !(sorter instanceof KeyedSorter)) {
+            projected.addAll(NicyclerParallel.project(dataset, filter, sorter, metrics));
+            removeHidden(projected);
+            return projected;
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        if(indexed) {
+            index.search(((NicyclerIndex.Query) filter).query, projected);
+            orderBySeq(projected);
+        } else if(parallelThreshold > 0 && dataset.size() >= parallelThreshold) {
+            projected.addAll(NicyclerParallel.project(dataset, filter, null, null));
+        } else if(filter == null) {
+            projected.addAll(dataset);
+        } else {
+            for(D d : dataset) if(filter.accept(d)) projected.add(d);
+        }
+        removeHidden(projected);
+
+        long filtered = metrics == null ? 0 : System.nanoTime();
+        order(projected, limit == 0 ? Integer.MAX_VALUE : limit);
+
+        if(metrics != null) metrics.onProject(dataset.size(), projected.size(), filtered - start, System.nanoTime() - filtered);
+        return projected;
+    }
+
+    private void removeHidden(ArrayList<D> projected) {
+        if(hidden.isEmpty()) return;
+        int kept = 0;
+        for(int i = 0; i < projected.size(); i++) {
+            D d = projected.get(i);
+            if(!hidden.contains(d)) projected.set(kept++, d);
+        }
+        projected.subList(kept, projected.size()).clear();
+    }
+
+    /**
+     * Sorts items that are in the order they were added, keeping only the first ones if there are
+     * more than a number of them. Those are selected without sorting the others.
+     * @param items items to sort
+     * @param count maximum number of items to keep
+     */
+    @SuppressWarnings("unchecked")
+    private void order(final ArrayList<D> items, int count) {
+        if(items.size() > count) {
+            if(!(sorter instanceof KeyedSorter)) {
+                // The items are in the order they were added, so ties are broken by index
+                // without looking up their entries
+                NicyclerSelection.select(items, count, sorter);
+                return;
+            }
+            NicyclerSelection.selectRanked(items, count, new NicyclerSelection.Ranking() {
+                @Override
+                public int compare(int a, int b) {
+                    D x = items.get(a), y = items.get(b);
+                    return NicyclerProjection.this.compare(x, entries.get(x), y, entries.get(y));
+                }
+            });
+        } else if(sorter instanceof KeyedSorter) {
+            sortByKeys(items, (KeyedSorter<D>) sorter);
+        } else if(sorter != null) {
+            sort(items, sorter);
+        }
+    }
+
+    /**
+     * Limits the projection to its first items, or removes the limit. Raising the limit only looks
+     * for the items that come next, without sorting the ones already projected again.
+     * @param limit maximum number of items, or 0 for no limit
+     */
+    void limit(int limit) {
+        int previous = this.limit;
+        if(limit == previous) return;
+        this.limit = limit;
+        modified();
+        // A batch rebuilds the projection with the new limit when it's committed
+        if(cache == null || batchDepth > 0) return;
+        if(limit > 0 && cache.size() > limit) {
+            int removed = cache.size() - limit;
+            cache.subList(limit, cache.size()).clear();
+            if(clean > limit) clean = limit;
+            observer.onRemoved(limit, removed);
+        } else if(previous > 0 && cache.size() >= previous) {
+            // Only a full projection can have items after it
+            fill(limit == 0 ? Integer.MAX_VALUE : limit - cache.size());
+        }
+    }
+
+    /**
+     * @return maximum number of items in the projection, or 0 for no limit
+     */
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * Appends the items that come next after the end of a limited projection. Every item after
+     * the end is checked, but only the ones appended are sorted.
+     * @param count maximum number of items to append
+     */
+    private void fill(int count) {
+        D last = cache.isEmpty() ? null : cache.get(cache.size() - 1);
+        Entry lastEntry = last == null ? null : entries.get(last);
+        boolean plain = sorter != null && !(sorter instanceof KeyedSorter);
+        ArrayList<D> next = new ArrayList<>();
+        for(D d : dataset) {
+            if(!accepts(d)) continue;
+            if(last != null) {
+                // Entries are only looked up when the sorter can't order the items by itself
+                int result = plain ? sorter.compare(d, last) : 0;
+                if(result < 0 || (result == 0 && compare(d, entries.get(d), last, lastEntry) <= 0)) continue;
+            }
+            next.add(d);
+        }
+        if(next.isEmpty()) return;
+        order(next, count);
+        int start = cache.size();
+        cache.addAll(next);
+        observer.onInserted(start, next.size());
+    }
+
+    /**
+     * Inserts an accepted item where it belongs. If the projection is limited and full, the item
+     * is left out if it belongs after the end, otherwise it pushes the last item out.
+     */
+    private void insertAccepted(D d, Entry entry) {
+        int position = search(d, entry);
+        if(limit > 0 && position >= limit) return;
+        insert(position, d, entry);
+        observer.onInserted(position, 1);
+        if(limit > 0 && cache.size() > limit) {
+            delete(limit);
+            observer.onRemoved(limit, 1);
+        }
+    }
+
+    /**
+     * Checks whether an updated item that isn't in a limited projection now belongs in it
+     */
+    private boolean entersLimit(D d) {
+        if(!accepts(d)) return false;
+        if(cache.size() < limit) return true;
+        D last = cache.get(cache.size() - 1);
+        return compare(d, entries.get(d), last, entries.get(last)) < 0;
+    }
+
+    /**
+     * Puts items back in the order they were added to the dataset, as the sorts expect
+     */
+    @SuppressWarnings("unchecked")
+    private void orderBySeq(ArrayList<D> projected) {
+        int size = projected.size();
+        ensureBuffers(size);
+        boolean ordered = true;
+        for(int i = 0; i < size; i++) {
+            sortOrder[i] = i;
+            sortKeys[i] = entries.get(projected.get(i)).seq;
+            if(i > 0 && sortKeys[i] < sortKeys[i - 1]) ordered = false;
+        }
+        if(!ordered) {
+            mergeSort(sortKeys, sortOrder, sortKeyBuffer, sortOrderBuffer, 0, size);
+            for(int i = 0; i < size; i++) sortItems[i] = projected.get(sortOrder[i]);
+            for(int i = 0; i < size; i++) projected.set(i, (D) sortItems[i]);
+        }
+        clearBuffers(size);
+    }
+
+    /**
+     * Releases memory only kept to make rebuilding and refiltering faster: the spare list, sorting
+     * and diffing buffers, and earlier projections kept for widening a narrowing filter
+     */
+    void trimBuffers() {
+        spare = null;
+        sortItems = sortItemBuffer = null;
+        sortOrder = sortOrderBuffer = null;
+        sortKeys = sortKeyBuffer = null;
+        diffRemaining = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        diffWork = new ArrayList<>();
+        history.clear();
+    }
+
+    /**
+     * Releases the projection along with the buffers, for when it isn't displayed. It's rebuilt
+     * the next time it's needed, and the observer is reset on the next change.
+     */
+    void release() {
+        trimBuffers();
+        // A batch needs the old projection to work out what changed
+        if(batchDepth == 0) {
+            cache = null;
+            clean = 0;
+        }
+    }
+
+    /**
+     * Releases everything that can be worked out again from the dataset: the projection, the
+     * buffers, cached sort keys and the text index
+     */
+    void releaseAll() {
+        release();
+        for(Entry entry : entries.values()) {
+            entry.keyedBy = null;
+            entry.longKeys = null;
+            entry.keys = null;
+        }
+        if(index != null) index.release();
+    }
+
+    /**
+     * @return number of items in the projection, or 0 if it's been released
+     */
+    int projectedSize() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return number of items in earlier projections kept for widening a narrowing filter
+     */
+    int historySize() {
+        int size = 0;
+        for(Refinement<D> refinement : history) size += refinement.projected.size();
+        return size;
+    }
+
+    /**
+     * @return number of items the sorting buffers can hold
+     */
+    int bufferSize() {
+        return sortItems == null ? 0 : sortItems.length;
+    }
+
+    /**
+     * @return number of items with cached sort keys
+     */
+    int keyedSize() {
+        int size = 0;
+        for(Entry entry : entries.values()) if(entry.keyedBy != null) size++;
+        return size;
+    }
+
+    /**
+     * Takes the spare list to build a projection in, or creates one if there isn't one
+     * @return empty list
+     */
+    private ArrayList<D> spare() {
+        ArrayList<D> spare = this.spare;
+        this.spare = null;
+        if(spare == null) return new ArrayList<>(dataset.size());
+        spare.ensureCapacity(dataset.size());
+        return spare;
+    }
+
+    /**
+     * Keeps a discarded projection to build the next one in. This must only be called with lists
+     * nothing else refers to, which excludes projections kept in the refinement history.
+     * @param list discarded projection
+     */
+    private void recycle(ArrayList<D> list) {
+        if(list == null) return;
+        list.clear();
+        if(spare == null || spare.size() < list.size()) spare = list;
+    }
+
+    /**
+     * Grows the sorting buffers to fit a number of items
+     */
+    private void ensureBuffers(int size) {
+        if(sortItems != null && sortItems.length >= size) return;
+        size = Math.max(size, sortItems == null ? 0 : sortItems.length + (sortItems.length >> 1));
+        sortItems = new Object[size];
+        sortItemBuffer = new Object[size];
+        sortOrder = new int[size];
+        sortOrderBuffer = new int[size];
+        sortKeys = new long[size];
+        sortKeyBuffer = new long[size];
+    }
+
+    /**
+     * Drops references to items left in the sorting buffers, so they can be garbage collected
+     */
+    private void clearBuffers(int size) {
+        Arrays.fill(sortItems, 0, size, null);
+        Arrays.fill(sortItemBuffer, 0, size, null);
+    }
+
+    /**
+     * Sorts items in place with a comparator. The merge sort is stable, so items the comparator
+     * considers equal stay in the order they were added.
+     */
+    @SuppressWarnings("unchecked")
+    private void sort(ArrayList<D> projected, Comparator<D> sorter) {
+        int size = projected.size();
+        ensureBuffers(size);
+        for(int i = 0; i < size; i++) sortItems[i] = projected.get(i);
+        mergeSort(sortItems, sortItemBuffer, 0, size, (Comparator<Object>) sorter);
+        for(int i = 0; i < size; i++) projected.set(i, (D) sortItems[i]);
+        clearBuffers(size);
+    }
+
+    /**
+     * Sorts items in dataset order by their cached keys. Indices are sorted rather than the items
+     * themselves so the keys can be compared straight from arrays, and the merge sorts are stable
+     * so items with equal keys stay in the order they were added.
+     */
+    @SuppressWarnings("unchecked")
+    private void sortByKeys(ArrayList<D> projected, KeyedSorter<D> keyed) {
+        int size = projected.size();
+        ensureBuffers(size);
+        for(int i = 0; i < size; i++) sortOrder[i] = i;
+
+        if(keyed.isSingleLong()) {
+            // Negating descending keys lets them be compared like ascending ones, and moving them
+            // along with the indices keeps the comparisons reading memory in order
+            boolean descending = keyed.isDescending(0);
+            for(int i = 0; i < size; i++) {
+                long key = keysOf(projected.get(i), entries.get(projected.get(i))).longKeys[0];
+                sortKeys[i] = descending ? ~key : key;
+            }
+            mergeSort(sortKeys, sortOrder, sortKeyBuffer, sortOrderBuffer, 0, size);
+        } else {
+            // The item buffer isn't needed until the end, so holds the entries while sorting
+            for(int i = 0; i < size; i++) sortItemBuffer[i] = keysOf(projected.get(i), entries.get(projected.get(i)));
+            mergeSort(sortOrder, sortOrderBuffer, 0, size, keyed, sortItemBuffer);
+        }
+
+        for(int i = 0; i < size; i++) sortItems[i] = projected.get(i);
+        for(int i = 0; i < size; i++) projected.set(i, (D) sortItems[sortOrder[i]]);
+        clearBuffers(size);
+    }
+
+    private static void mergeSort(Object[] items, Object[] buffer, int from, int to, Comparator<Object> sorter) {
+        if(to - from <= 16) {
+            // Insertion sort for small ranges, which is stable as it never moves past equal items
+            for(int i = from + 1; i < to; i++) {
+                Object item = items[i];
+                int j = i - 1;
+                while(j >= from && sorter.compare(items[j], item) > 0) {
+                    items[j + 1] = items[j];
+                    j--;
+                }
+                items[j + 1] = item;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(items, buffer, from, middle, sorter);
+        mergeSort(items, buffer, middle, to, sorter);
+        if(sorter.compare(items[middle - 1], items[middle]) <= 0) return;
+
+        System.arraycopy(items, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for(int i = from; i < to; i++) {
+            if(right >= to || (left < middle && sorter.compare(buffer[left], buffer[right]) <= 0)) {
+                items[i] = buffer[left++];
+            } else {
+                items[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static void mergeSort(long[] keys, int[] order, long[] keyBuffer, int[] buffer, int from, int to) {
+        if(to - from <= 16) {
+            for(int i = from + 1; i < to; i++) {
+                long key = keys[i];
+                int index = order[i], j = i - 1;
+                while(j >= from && keys[j] > key) {
+                    keys[j + 1] = keys[j];
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+                order[j + 1] = index;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(keys, order, keyBuffer, buffer, from, middle);
+        mergeSort(keys, order, keyBuffer, buffer, middle, to);
+        if(keys[middle - 1] <= keys[middle]) return;
+
+        System.arraycopy(keys, from, keyBuffer, from, to - from);
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for(int i = from; i < to; i++) {
+            if(right >= to || (left < middle && keyBuffer[left] <= keyBuffer[right])) {
+                keys[i] = keyBuffer[left];
+                order[i] = buffer[left++];
+            } else {
+                keys[i] = keyBuffer[right];
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static void mergeSort(int[] order, int[] buffer, int from, int to, KeyedSorter<?> keyed, Object[] entries) {
+        if(to - from <= 16) {
+            for(int i = from + 1; i < to; i++) {
+                int index = order[i], j = i - 1;
+                while(j >= from && compareKeys(order[j], index, keyed, entries) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = index;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle, keyed, entries);
+        mergeSort(order, buffer, middle, to, keyed, entries);
+        if(compareKeys(order[middle - 1], order[middle], keyed, entries) <= 0) return;
+
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for(int i = from; i < to; i++) {
+            if(right >= to || (left < middle && compareKeys(buffer[left], buffer[right], keyed, entries) <= 0)) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static int compareKeys(int a, int b, KeyedSorter<?> keyed, Object[] entries) {
+        Entry aEntry = (Entry) entries[a], bEntry = (Entry) entries[b];
+        return keyed.compare(aEntry.longKeys, aEntry.keys, bEntry.longKeys, bEntry.keys);
+    }
+
+    /**
+     * Gets an item's entry with its keys extracted for the current sorter, which must be keyed
+     * @param d item to get the keys of
+     * @param entry index entry of the item, or {@code null} if it isn't in the dataset
+     * @return entry with up to date keys
+     */
+    @SuppressWarnings("unchecked")
+    private Entry keysOf(D d, Entry entry) {
+        KeyedSorter<D> keyed = (KeyedSorter<D>) sorter;
+        // Items dropped by an asynchronous set are ordered last until the projection is replaced
+        if(entry == null) entry = new Entry(Long.MAX_VALUE);
+        if(entry.keyedBy == keyed) return entry;
+        if(entry.longKeys == null || entry.longKeys.length != keyed.size()) {
+            entry.longKeys = new long[keyed.size()];
+            entry.keys = null;
+        }
+        if(!keyed.hasKeys()) entry.keys = null;
+        else if(entry.keys == null) entry.keys = new Object[keyed.size()];
+        keyed.extract(d, entry.longKeys, entry.keys);
+        entry.keyedBy = keyed;
+        return entry;
+    }
+
+    /**
+     * Filters and sorts items. This doesn't touch any projection state, so can be called from a
+     * background thread with a copy of the dataset.
+     * @param dataset items to project
+     * @param filter filter to match against
+     * @param sorter comparator to compare items
+     * @param parallelThreshold minimum dataset size to use multiple threads for, or 0 for never
+     * @param metrics receives how long filtering and sorting took, or {@code null} to not measure
+     * @return filtered and sorted items
+     */
+    static <D> ArrayList<D> project(List<D> dataset, Filter<D> filter, Comparator<D> sorter, int parallelThreshold, NicyclerMetrics metrics) {
+        if(parallelThreshold > 0 && dataset.size() >= parallelThreshold) {
+            return NicyclerParallel.project(dataset, filter, sorter, metrics);
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        ArrayList<D> projected = new ArrayList<>();
+
+        if(filter == null) {
+            projected.addAll(dataset);
+        } else {
+            for(D d : dataset) if(filter.accept(d)) projected.add(d);
+        }
+
+        long filtered = metrics == null ? 0 : System.nanoTime();
+        if(sorter != null) {
+            Collections.sort(projected, sorter);
+        }
+
+        if(metrics != null) metrics.onProject(dataset.size(), projected.size(), filtered - start, System.nanoTime() - filtered);
+        return projected;
+    }
+
+    /**
+     * Discards the projection and notifies the observer that everything has changed
+     */
+    void reset() {
+        modified();
+        if(batchDepth > 0) {
+            // The old projection has to stay in place until the batch is committed
+            batchReset = true;
+            return;
+        }
+        recycle(cache);
+        cache = null;
+        observer.onReset();
+    }
+
+    /**
+     * Records that the dataset or projection changed, which also makes earlier projections stale
+     */
+    private void modified() {
+        modCount++;
+        history.clear();
+    }
+
+    /**
+     * Changes the filter. If the new filter narrows the current one, or one that produced an earlier
+     * projection, only that projection's items are checked and the sort order is kept, otherwise
+     * the projection is rebuilt.
+     * @param filter filter to match against
+     */
+    void filter(Filter<D> filter) {
+        int base = -1;
+        // A limited projection doesn't have every item to refine
+        if(cache != null && batchDepth == 0 && limit == 0) {
+            if(canRefine(filter, this.filter)) {
+                base = history.size();
+            } else {
+                base = history.size() - 1;
+                while(base >= 0 && !canRefine(filter, history.get(base).filter)) base--;
+            }
+        }
+        if(base < 0) {
+            this.filter = filter;
+            reset();
+            return;
+        }
+
+        // The current projection is kept in the history if it's being refined, otherwise it's done with
+        boolean keep = base == history.size();
+        if(keep) {
+            history.add(new Refinement<>(this.filter, cache));
+            if(history.size() > MAX_HISTORY) history.remove(0);
+            base = history.size() - 1;
+        } else {
+            history.subList(base + 1, history.size()).clear();
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        ArrayList<D> projected = spare();
+        List<D> from = history.get(base).projected;
+        if(filter == null) {
+            projected.addAll(from);
+        } else {
+            for(D d : from) if(filter.accept(d)) projected.add(d);
+        }
+        // The sort order is kept, so refining takes no time sorting
+        if(metrics != null) metrics.onProject(from.size(), projected.size(), System.nanoTime() - start, 0);
+
+        ArrayList<D> old = cache;
+        this.filter = filter;
+        cache = projected;
+        clean = 0;
+        modCount++;
+        dispatchDifferences(old, projected, Collections.<D, Object>emptyMap());
+        if(!keep) recycle(old);
+    }
+
+    /**
+     * Checks whether a projection made with one filter can be refined into one for another. Any
+     * filter can refine an unfiltered projection, as that contains everything already sorted.
+     */
+    private static <D> boolean canRefine(Filter<D> filter, Filter<D> from) {
+        if(from == null) return true;
+        if(filter == null) return false;
+        return filter instanceof NarrowingFilter && ((NarrowingFilter<D>) filter).narrows(from);
+    }
+
+    /**
+     * Replaces the projection with one computed elsewhere. The caller is responsible for notifying
+     * the observer of the differences.
+     * @param filter filter the projection was computed with
+     * @param sorter comparator the projection was computed with
+     * @param projected filtered and sorted items
+     */
+    void replace(Filter<D> filter, Comparator<D> sorter, ArrayList<D> projected) {
+        this.filter = filter;
+        this.sorter = sorter;
+        recycle(cache);
+        cache = projected;
+        clean = 0;
+        modified();
+    }
+
+    /**
+     * Replaces the contents of the dataset without touching the projection. The caller is
+     * responsible for replacing or resetting it.
+     * @param items items to set
+     */
+    void load(Collection<? extends D> items) {
+        if(!shared) {
+            dataset.clear();
+            dataset.addAll(items);
+        }
+        entries.clear();
+        hidden.clear();
+        for(D d : dataset) entries.put(d, new Entry(nextSeq++));
+        // The index is rebuilt from the new dataset when it's next searched
+        if(index != null) index.release();
+        modified();
+    }
+
+    /**
+     * Replaces the contents of the dataset
+     * @param items items to set
+     */
+    void set(Collection<? extends D> items) {
+        load(items);
+        reset();
+    }
+
+    /**
+     * Projects a dataset owned by a store instead of this projection's own. The store changes the
+     * dataset itself, then passes the changes on, so they're only applied to the dataset once.
+     * @param dataset store's dataset, or {@code null} to go back to an empty dataset of its own
+     */
+    void share(ArrayList<D> dataset) {
+        shared = dataset != null;
+        suspended = false;
+        this.dataset = shared ? dataset : new ArrayList<D>();
+        if(index != null) index(index.key());
+        set(this.dataset);
+    }
+
+    /**
+     * Forgets the dataset until it's loaded again, for when the store doesn't need to keep the
+     * projection up to date
+     */
+    void suspend() {
+        while(batchDepth > 0) commit();
+        suspended = true;
+        entries.clear();
+        hidden.clear();
+        releaseAll();
+        modified();
+    }
+
+    /**
+     * Loads the dataset again after the projection was suspended, and resets the observer
+     */
+    void resume() {
+        if(!suspended) return;
+        suspended = false;
+        set(dataset);
+    }
+
+    /**
+     * Checks whether the projection is suspended, so changes to the dataset shouldn't be passed on
+     * @return whether the projection is suspended
+     */
+    boolean suspended() {
+        return suspended;
+    }
+
+    /**
+     * Indexes the items' text so they can be searched without checking every item, or stops
+     * indexing them
+     * @param key function getting the text of an item, or {@code null} to remove the index
+     */
+    void index(TextKey<D> key) {
+        index = key == null ? null : new NicyclerIndex<>(key, dataset);
+        if(index != null) index.set(dataset);
+    }
+
+    /**
+     * Checks whether an item is in the dataset
+     * @param d item to check
+     * @return whether the item is in the dataset
+     */
+    boolean contains(D d) {
+        return entries.containsKey(d);
+    }
+
+    private boolean accepts(D d) {
+        if(!hidden.isEmpty() && hidden.contains(d)) return false;
+        return filter == null || filter.accept(d);
+    }
+
+    /**
+     * Leaves an item out of the projection until it's shown again, without changing the filter
+     * @param d item to hide
+     */
+    void hide(D d) {
+        Entry entry = entries.get(d);
+        if(entry == null || !hidden.add(d)) return;
+        modified();
+        if(batchDepth > 0) {
+            batchChanges++;
+            return;
+        }
+        if(cache == null) {
+            observer.onReset();
+            return;
+        }
+        int position = positionOf(d, entry);
+        if(position == -1) return;
+        boolean full = limit > 0 && cache.size() >= limit;
+        delete(position);
+        observer.onRemoved(position, 1);
+        if(full) fill(1);
+    }
+
+    /**
+     * Puts a hidden item back in the projection if the filter accepts it, in case it changed while
+     * it was hidden
+     * @param d item to show
+     */
+    void show(D d) {
+        if(!hidden.remove(d)) return;
+        Entry entry = entries.get(d);
+        if(entry == null) return;
+        modified();
+        entry.keyedBy = null;
+        if(batchDepth > 0) {
+            // If it was hidden during the batch, it may have moved since the batch began
+            batchUpdated.put(d, null);
+            batchChanges++;
+            return;
+        }
+        if(cache == null) {
+            observer.onReset();
+            return;
+        }
+        if(accepts(d)) insertAccepted(d, entry);
+    }
+
+    /**
+     * Copies the hidden items, so they can be left out of a projection built on another thread
+     * @return hidden items, or {@code null} if there aren't any
+     */
+    Set<D> hidden() {
+        if(hidden.isEmpty()) return null;
+        Set<D> copy = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        copy.addAll(hidden);
+        return copy;
+    }
+
+    /**
+     * Compares items by the sorter, then by the order they were added
+     * @param a first item
+     * @param aEntry index entry of the first item, or {@code null} if it isn't in the dataset
+     * @param b second item
+     * @param bEntry index entry of the second item, or {@code null} if it isn't in the dataset
+     */
+    @SuppressWarnings("unchecked")
+    private int compare(D a, Entry aEntry, D b, Entry bEntry) {
+        if(sorter instanceof KeyedSorter) {
+            aEntry = keysOf(a, aEntry);
+            bEntry = keysOf(b, bEntry);
+            int result = ((KeyedSorter<D>) sorter).compare(aEntry.longKeys, aEntry.keys, bEntry.longKeys, bEntry.keys);
+            if(result != 0) return result;
+        } else if(sorter != null) {
+            int result = sorter.compare(a, b);
+            if(result != 0) return result;
+        }
+        // Items dropped by an asynchronous set are ordered last until the projection is replaced
+        long aSeq = aEntry == null ? Long.MAX_VALUE : aEntry.seq;
+        long bSeq = bEntry == null ? Long.MAX_VALUE : bEntry.seq;
+        return aSeq < bSeq ? -1 : (aSeq == bSeq ? 0 : 1);
+    }
+
+    /**
+     * Finds the first position whose item isn't ordered before an item
+     * @param d item to search for
+     * @param entry index entry of the item
+     * @return position the item is at or should be inserted at
+     */
+    private int search(D d, Entry entry) {
+        int low = 0, high = cache.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            D other = cache.get(mid);
+            if(compare(other, entries.get(other), d, entry) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Finds the position of an item in the projection. The position index is tried first, then a
+     * binary search, which only works if the item's sort key hasn't changed or is still cached.
+     * Only if both of those fail are the positions after the earliest mutation renumbered.
+     * @param d item to find
+     * @param entry index entry for the item
+     * @return position or -1 if the item isn't projected
+     */
+    private int positionOf(D d, Entry entry) {
+        int position = entry.position;
+        if(position >= 0 && position < clean && cache.get(position) == d) return position;
+
+        position = search(d, entry);
+        if(position < cache.size() && cache.get(position) == d) {
+            entry.position = position;
+            return position;
+        }
+
+        for(int i = clean; i < cache.size(); i++) {
+            Entry other = entries.get(cache.get(i));
+            if(other != null) other.position = i;
+        }
+        clean = cache.size();
+        position = entry.position;
+        return position >= 0 && position < cache.size() && cache.get(position) == d ? position : -1;
+    }
+
+    private void insert(int position, D d, Entry entry) {
+        cache.add(position, d);
+        if(position < clean) clean = position;
+        entry.position = position;
+    }
+
+    private void delete(int position) {
+        cache.remove(position);
+        if(position < clean) clean = position;
+    }
+
+    /**
+     * Appends items to the dataset
+     * @param items items to add
+     */
+    void add(List<D> items) {
+        if(!shared) dataset.addAll(items);
+        modified();
+        batchChanges += items.size();
+        for(D d : items) {
+            Entry entry = new Entry(nextSeq++);
+            entries.put(d, entry);
+            if(index != null) index.add(d);
+            if(cache == null || batchDepth > 0 || !accepts(d)) continue;
+            insertAccepted(d, entry);
+        }
+        if(cache == null && batchDepth == 0) observer.onReset();
+    }
+
+    /**
+     * Removes items from the dataset, compacting it in a single pass
+     * @param items items to remove
+     */
+    void remove(List<D> items) {
+        if(items.isEmpty()) return;
+        modified();
+        batchChanges += items.size();
+
+        int[] positions = new int[items.size()];
+        int count = 0;
+        if(cache != null && batchDepth == 0) {
+            for(D d : items) {
+                Entry entry = entries.get(d);
+                if(entry == null) continue;
+                int position = positionOf(d, entry);
+                if(position != -1) positions[count++] = position;
+            }
+        }
+        for(D d : items) entries.remove(d);
+        if(!hidden.isEmpty()) for(D d : items) hidden.remove(d);
+        if(index != null) for(D d : items) index.remove(d);
+
+        if(!shared) {
+            int kept = 0;
+            for(int i = 0; i < dataset.size(); i++) {
+                D d = dataset.get(i);
+                if(entries.containsKey(d)) dataset.set(kept++, d);
+            }
+            dataset.subList(kept, dataset.size()).clear();
+        }
+
+        if(batchDepth > 0) return;
+        if(cache == null) {
+            observer.onReset();
+            return;
+        }
+
+        boolean full = limit > 0 && cache.size() >= limit;
+        // The same item may have been passed more than once
+        Arrays.sort(positions, 0, count);
+        int unique = 0;
+        for(int i = 0; i < count; i++) {
+            if(unique == 0 || positions[unique - 1] != positions[i]) positions[unique++] = positions[i];
+        }
+        count = unique;
+
+        if(count > 1 && count > refreshFraction * cache.size()) {
+            recycle(cache);
+            cache = null;
+            observer.onReset();
+            return;
+        }
+
+        // Remove runs of neighbouring positions from the end so earlier positions stay valid
+        for(int i = count - 1; i >= 0; ) {
+            int end = positions[i], start = end;
+            while(i >= 0 && positions[i] >= start - 1) start = positions[i--];
+            observer.onRemoved(start, end - start + 1);
+        }
+
+        int projected = 0, next = 0;
+        for(int i = 0; i < cache.size(); i++) {
+            if(next < count && positions[next] == i) {
+                next++;
+                continue;
+            }
+            cache.set(projected++, cache.get(i));
+        }
+        cache.subList(projected, cache.size()).clear();
+        if(count > 0 && positions[0] < clean) clean = positions[0];
+        if(full && count > 0) fill(count);
+    }
+
+    /**
+     * Re-evaluates items that may have changed. The projection is rebuilt by taking the updated
+     * items out and merging them back in, then any items that moved, appeared or disappeared are
+     * notified individually and runs of items changed in place as ranges.
+     * @param items items that changed
+     * @param payload description of the change for partial rebinding, or {@code null} to rebind
+     * the whole item
+     */
+    void update(List<D> items, Object payload) {
+        if(items.size() == 1 || batchDepth > 0) {
+            for(D d : items) update(d, payload);
+            return;
+        }
+        if(items.isEmpty()) return;
+        if(limit > 0 && cache != null) {
+            updateLimited(items, payload);
+            return;
+        }
+        modified();
+        for(D d : items) {
+            Entry entry = entries.get(d);
+            if(entry == null) continue;
+            entry.keyedBy = null;
+            if(index != null) index.update(d);
+        }
+        if(cache == null || items.size() > refreshFraction * cache.size()) {
+            recycle(cache);
+            cache = null;
+            observer.onReset();
+            return;
+        }
+
+        Map<D, Object> updated = new IdentityHashMap<>();
+        ArrayList<D> accepted = new ArrayList<>();
+        for(D d : items) {
+            if(!entries.containsKey(d) || updated.containsKey(d)) continue;
+            updated.put(d, payload);
+            if(accepts(d)) accepted.add(d);
+        }
+        Collections.sort(accepted, new Comparator<D>() {
+            @Override
+            public int compare(D a, D b) {
+                return NicyclerProjection.this.compare(a, entries.get(a), b, entries.get(b));
+            }
+        });
+
+        ArrayList<D> old = cache;
+        ArrayList<D> projected = spare();
+        int next = 0;
+        for(D d : old) {
+            if(updated.containsKey(d)) continue;
+            Entry entry = entries.get(d);
+            while(next < accepted.size() && compare(accepted.get(next), entries.get(accepted.get(next)), d, entry) < 0) {
+                projected.add(accepted.get(next++));
+            }
+            projected.add(d);
+        }
+        while(next < accepted.size()) projected.add(accepted.get(next++));
+
+        cache = projected;
+        clean = 0;
+        dispatchDifferences(old, projected, updated);
+        recycle(old);
+    }
+
+    /**
+     * Re-evaluates items in a limited projection. If any were in it or now belong in it, the
+     * projection is rebuilt, as items after the end may need to move into it.
+     */
+    private void updateLimited(List<D> items, Object payload) {
+        modified();
+        Map<D, Object> updated = new IdentityHashMap<>();
+        boolean affected = false;
+        for(D d : items) {
+            Entry entry = entries.get(d);
+            if(entry == null) continue;
+            // Cached keys are still the old ones, so this finds where the item was
+            if(!affected && positionOf(d, entry) != -1) affected = true;
+            updated.put(d, payload);
+        }
+        for(D d : updated.keySet()) {
+            entries.get(d).keyedBy = null;
+            if(index != null) index.update(d);
+        }
+        if(!affected) {
+            for(D d : updated.keySet()) {
+                if(entersLimit(d)) {
+                    affected = true;
+                    break;
+                }
+            }
+        }
+        if(!affected) return;
+
+        ArrayList<D> old = cache;
+        cache = rebuild();
+        clean = 0;
+        dispatchDifferences(old, cache, updated);
+        recycle(old);
+    }
+
+    /**
+     * Re-evaluates an item that may have changed, moving it within or into/out of the projection
+     * @param d item that changed
+     * @param payload description of the change for partial rebinding, or {@code null} to rebind
+     * the whole item
+     */
+    void update(D d, Object payload) {
+        Entry entry = entries.get(d);
+        if(entry == null) return;
+        modified();
+        if(index != null) index.update(d);
+        if(batchDepth > 0) {
+            entry.keyedBy = null;
+            if(!batchUpdated.containsKey(d)) {
+                batchUpdated.put(d, payload);
+                batchChanges++;
+            } else if(batchUpdated.get(d) != payload) {
+                // Different changes can't be described by one payload, so rebind the whole item
+                batchUpdated.put(d, null);
+            }
+            return;
+        }
+        if(cache == null) {
+            entry.keyedBy = null;
+            observer.onReset();
+            return;
+        }
+        // Any cached keys are still the old ones, so a binary search can find where the item was
+        int from = positionOf(d, entry);
+        entry.keyedBy = null;
+        boolean accepted = accepts(d);
+        boolean full = limit > 0 && cache.size() >= limit;
+        if(from == -1) {
+            if(accepted) insertAccepted(d, entry);
+            return;
+        }
+        if(!accepted) {
+            delete(from);
+            observer.onRemoved(from, 1);
+            if(full) fill(1);
+            return;
+        }
+        if(sorter == null) {
+            observer.onChanged(from, 1, payload);
+            return;
+        }
+        delete(from);
+        int to = search(d, entry);
+        if(full && to == cache.size()) {
+            // Items after the end may now come before it, so the next item is found again, which
+            // may be this one
+            observer.onRemoved(from, 1);
+            fill(1);
+            return;
+        }
+        insert(to, d, entry);
+        if(from != to) observer.onMoved(from, to);
+        observer.onChanged(to, 1, payload);
+    }
+
+    /**
+     * Starts recording mutations without updating the projection or notifying the observer.
+     * Batches can be nested, in which case only the outermost commit applies the changes.
+     */
+    void beginBatch() {
+        if(batchDepth++ > 0) return;
+        batchChanges = 0;
+        batchReset = false;
+        batchUpdated = new IdentityHashMap<>();
+    }
+
+    /**
+     * Checks whether mutations are currently being batched
+     * @return whether a batch is in progress
+     */
+    boolean batching() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * Ends a batch, recomputing the projection once and notifying the observer of the differences
+     * @return whether the batch was too big and everything was refreshed instead
+     */
+    boolean commit() {
+        if(batchDepth == 0) throw new IllegalStateException("No batch to commit");
+        if(--batchDepth > 0) return false;
+        Map<D, Object> updated = batchUpdated;
+        batchUpdated = null;
+
+        if(batchReset || cache == null || batchChanges > batchRefreshThreshold) {
+            recycle(cache);
+            cache = null;
+            observer.onReset();
+            return true;
+        }
+
+        ArrayList<D> old = cache;
+        cache = rebuild();
+        clean = 0;
+        dispatchDifferences(old, cache, updated);
+        recycle(old);
+        return false;
+    }
+
+    /**
+     * Notifies the observer of the differences between two projections as ranges. Items that
+     * weren't updated keep their relative order, so only updated items ever need to move.
+     * @param old projection the observer knows about
+     * @param projected new projection
+     * @param updated items that were updated and may have moved, with their change payloads
+     */
+    private void dispatchDifferences(List<D> old, List<D> projected, Map<D, Object> updated) {
+        Set<D> remaining = diffRemaining;
+        remaining.addAll(projected);
+
+        // Removals, from the end so earlier positions stay valid
+        ArrayList<D> work = diffWork;
+        for(D d : old) if(remaining.contains(d)) work.add(d);
+        int end = old.size();
+        for(int i = old.size() - 1; i >= -1; i--) {
+            if(i >= 0 && !remaining.contains(old.get(i))) continue;
+            if(end - i > 1) observer.onRemoved(i + 1, end - i - 1);
+            end = i;
+        }
+        remaining.clear();
+        remaining.addAll(work);
+
+        // Moves, placing each updated item straight after the item it now follows. The cursor is
+        // the position of that item, and only updated items that haven't been placed yet can be
+        // between it and the next item that wasn't updated.
+        int cursor = -1;
+        for(D d : projected) {
+            if(!remaining.contains(d)) continue;
+            if(cursor + 1 < work.size() && work.get(cursor + 1) == d) {
+                cursor++;
+            } else if(updated.containsKey(d)) {
+                int from = indexOf(work, d);
+                work.remove(from);
+                if(from <= cursor) cursor--;
+                work.add(++cursor, d);
+                observer.onMoved(from, cursor);
+            } else {
+                do cursor++; while(work.get(cursor) != d);
+            }
+        }
+
+        // Insertions, from the start so positions match the new projection
+        for(int i = 0; i < projected.size(); i++) {
+            if(remaining.contains(projected.get(i))) continue;
+            int start = i;
+            while(i < projected.size() && !remaining.contains(projected.get(i))) i++;
+            observer.onInserted(start, i - start);
+        }
+
+        for(int i = 0; i < projected.size(); i++) {
+            D d = projected.get(i);
+            if(!remaining.contains(d) || !updated.containsKey(d)) continue;
+            int start = i;
+            Object payload = updated.get(d);
+            while(i + 1 < projected.size() && remaining.contains(projected.get(i + 1))
+                    && updated.containsKey(projected.get(i + 1)) && updated.get(projected.get(i + 1)) == payload) i++;
+            observer.onChanged(start, i - start + 1, payload);
+        }
+
+        // Don't keep items alive until the next call
+        remaining.clear();
+        work.clear();
+    }
+
+    private static <D> int indexOf(List<D> list, D d) {
+        for(int i = 0; i < list.size(); i++) if(list.get(i) == d) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,108 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Selects the first items of a list in sorted order without sorting the rest. The best items seen
+ * so far are kept in a heap with the worst of them on top, so each other item only needs comparing
+ * against that one. Selecting k of n items takes O(n log k) time rather than O(n log n).
+ */
+final class NicyclerSelection {
+    /**
+     * Compares the items at two indices of the list being selected from. Items must never compare
+     * as equal, so ties should be broken by index or something else unique.
+     */
+    interface Ranking {
+        int compare(int a, int b);
+    }
+
+    private NicyclerSelection() { }
+
+    /**
+     * Keeps the first items of a list in sorted order, breaking ties by their order in the list
+     * @param items items to select from, which are replaced with the selected items
+     * @param limit number of items to keep
+     * @param sorter comparator to compare items, or {@code null} to keep the first items in the
+     * list
+     */
+    static <D> void select(final ArrayList<D> items, int limit, final Comparator<D> sorter) {
+        if(items.size() <= limit) {
+            if(sorter != null) Collections.sort(items, sorter);
+            return;
+        }
+        if(sorter == null) {
+            items.subList(limit, items.size()).clear();
+            return;
+        }
+        selectRanked(items, limit, new Ranking() {
+            @Override
+            public int compare(int a, int b) {
+                int result = sorter.compare(items.get(a), items.get(b));
+                if(result != 0) return result;
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Keeps the first items of a list in ranked order
+     * @param items items to select from, which are replaced with the selected items
+     * @param limit number of items to keep
+     * @param ranking ranking of the items by index
+     */
+    @SuppressWarnings("unchecked")
+    static <D> void selectRanked(ArrayList<D> items, int limit, Ranking ranking) {
+        int count = Math.min(limit, items.size());
+        int[] heap = new int[count];
+        int size = 0;
+        for(int i = 0; i < items.size(); i++) {
+            if(size < count) {
+                heap[size] = i;
+                siftUp(heap, size++, ranking);
+            } else if(ranking.compare(i, heap[0]) < 0) {
+                heap[0] = i;
+                siftDown(heap, size, ranking);
+            }
+        }
+
+        // Moving the worst item to the end each time leaves the heap in order
+        for(int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end, ranking);
+        }
+
+        Object[] selected = new Object[size];
+        for(int i = 0; i < size; i++) selected[i] = items.get(heap[i]);
+        items.clear();
+        for(Object d : selected) items.add((D) d);
+    }
+
+    private static void siftUp(int[] heap, int i, Ranking ranking) {
+        int item = heap[i];
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(ranking.compare(heap[parent], item) >= 0) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, Ranking ranking) {
+        int item = heap[0];
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size) break;
+            if(child + 1 < size && ranking.compare(heap[child + 1], heap[child]) > 0) child++;
+            if(ranking.compare(heap[child], item) <= 0) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+}
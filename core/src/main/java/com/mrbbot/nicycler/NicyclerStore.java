@@ -0,0 +1,249 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dataset shared by multiple nicyclers, each with its own filter and sorter. Items are held once
+ * by the store, and each mutation is applied to them once, then passed on to every nicycler that's
+ * displayed so it can notify its own changes. Nicyclers that aren't displayed are suspended:
+ * they're not kept up to date, and load the dataset again when they're next displayed.
+ * <p>
+ * The store must only be used from the main thread. The mutators of an attached nicycler can be
+ * called from any thread, and change the store.
+ * @param <D> data type of the nicyclers
+ */
+public class NicyclerStore<D> {
+    /**
+     * Projection of the store, with hooks for the nicycler displaying it
+     */
+    static class Member<D> {
+        final NicyclerProjection<D> projection;
+
+        Member(NicyclerProjection<D> projection) {
+            this.projection = projection;
+        }
+
+        /**
+         * Called when the dataset is replaced while the projection isn't suspended
+         * @param items new contents of the dataset
+         */
+        void set(List<D> items) {
+            projection.set(items);
+        }
+
+        /**
+         * Called before items are removed or updated
+         * @param items items about to change
+         */
+        void invalidate(List<D> items) { }
+
+        /**
+         * Called when the outermost batch is committed while the projection is batching
+         */
+        void commit() {
+            projection.commit();
+        }
+    }
+
+    private final ArrayList<D> dataset = new ArrayList<>();
+    private final ArrayList<Member<D>> members = new ArrayList<>();
+    private int batchDepth;
+
+    /**
+     * Attaches a projection to the store, replacing its dataset with the store's
+     * @param member projection to attach
+     * @param suspended whether to start suspended because the projection isn't displayed
+     */
+    void attach(Member<D> member, boolean suspended) {
+        members.add(member);
+        member.projection.share(dataset);
+        if(suspended) member.projection.suspend();
+        else for(int i = 0; i < batchDepth; i++) member.projection.beginBatch();
+    }
+
+    /**
+     * Detaches a projection from the store, leaving it with an empty dataset of its own
+     * @param member projection to detach
+     */
+    void detach(Member<D> member) {
+        if(!members.remove(member)) return;
+        while(member.projection.batching()) member.projection.commit();
+        member.projection.share(null);
+    }
+
+    /**
+     * Stops passing changes on to a projection until it's resumed, and releases everything it
+     * built from the dataset
+     * @param member projection to suspend
+     */
+    void suspend(Member<D> member) {
+        member.projection.suspend();
+    }
+
+    /**
+     * Loads the dataset into a suspended projection again, refreshing whatever displays it
+     * @param member projection to resume
+     */
+    void resume(Member<D> member) {
+        if(!member.projection.suspended()) return;
+        member.projection.resume();
+        for(int i = 0; i < batchDepth; i++) member.projection.beginBatch();
+    }
+
+    /**
+     * @return number of items in the store
+     */
+    public int size() {
+        return dataset.size();
+    }
+
+    /**
+     * @return items in the store, in the order they were added
+     */
+    public List<D> get() {
+        return Collections.unmodifiableList(dataset);
+    }
+
+    /**
+     * Clears the store
+     */
+    public void clear() {
+        set(Collections.<D>emptyList());
+    }
+
+    /**
+     * Sets the contents of the store to the items
+     * @param items items to set
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public final void set(D... items) {
+        set(Arrays.asList(items));
+    }
+
+    /**
+     * Sets the contents of the store to the items
+     * @param items items to set
+     */
+    public void set(Collection<? extends D> items) {
+        dataset.clear();
+        dataset.addAll(items);
+        for(Member<D> member : members) {
+            if(!member.projection.suspended()) member.set(dataset);
+        }
+    }
+
+    /**
+     * Adds items to the store
+     * @param items items to add
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public final void add(D... items) {
+        add(Arrays.asList(items));
+    }
+
+    /**
+     * Adds items to the store
+     * @param items items to add
+     */
+    public void add(List<D> items) {
+        dataset.addAll(items);
+        for(Member<D> member : members) {
+            if(!member.projection.suspended()) member.projection.add(items);
+        }
+    }
+
+    /**
+     * Removes items from the store that match a filter
+     * @param filter filter to match against
+     */
+    public void remove(Filter<D> filter) {
+        ArrayList<D> removed = matching(filter);
+        if(removed.isEmpty()) return;
+        // Removed first, so projections refilling themselves don't find the removed items
+        Set<D> set = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        set.addAll(removed);
+        int kept = 0;
+        for(int i = 0; i < dataset.size(); i++) {
+            D d = dataset.get(i);
+            if(!set.contains(d)) dataset.set(kept++, d);
+        }
+        dataset.subList(kept, dataset.size()).clear();
+
+        for(Member<D> member : members) {
+            if(member.projection.suspended()) continue;
+            member.invalidate(removed);
+            member.projection.remove(removed);
+        }
+    }
+
+    /**
+     * Updates items in the store
+     * @param filter filter that items are sent to where they may be updated; if they are
+     * {@code true} should be returned, otherwise {@code false} should
+     */
+    public void update(Filter<D> filter) {
+        update(filter, null);
+    }
+
+    /**
+     * Updates items in the store, describing what changed so views can be partially rebound
+     * @param filter filter that items are sent to where they may be updated; if they are
+     * {@code true} should be returned, otherwise {@code false} should
+     * @param payload description of the change passed to {@code onBind}, or {@code null} to rebind
+     * the whole item
+     */
+    public void update(Filter<D> filter, Object payload) {
+        update(matching(filter), payload);
+    }
+
+    /**
+     * Re-evaluates items that have changed in every projection
+     * @param items items that changed
+     * @param payload description of the change, or {@code null} to rebind the whole item
+     */
+    void update(List<D> items, Object payload) {
+        if(items.isEmpty()) return;
+        for(Member<D> member : members) {
+            if(member.projection.suspended()) continue;
+            member.invalidate(items);
+            member.projection.update(items, payload);
+        }
+    }
+
+    /**
+     * Starts a batch. Until {@code commit} is called, mutations are only applied to the store,
+     * then each nicycler displays the differences all at once. Batches can be nested.
+     */
+    public void beginBatch() {
+        batchDepth++;
+        for(Member<D> member : members) {
+            if(!member.projection.suspended()) member.projection.beginBatch();
+        }
+    }
+
+    /**
+     * Ends a batch started with {@code beginBatch}
+     */
+    public void commit() {
+        if(batchDepth == 0) throw new IllegalStateException("No batch to commit");
+        batchDepth--;
+        for(Member<D> member : members) {
+            // Projections loaded while the batch was in progress aren't batching
+            if(member.projection.batching()) member.commit();
+        }
+    }
+
+    private ArrayList<D> matching(Filter<D> filter) {
+        ArrayList<D> matched = new ArrayList<>();
+        for(D d : dataset) if(filter.accept(d)) matched.add(d);
+        return matched;
+    }
+}
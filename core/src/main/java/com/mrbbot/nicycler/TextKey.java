@@ -0,0 +1,15 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for getting the text a value can be searched by, such as a message or several fields
+ * joined together
+ * @param <D> type of values to search
+ */
+public interface TextKey<D> {
+    /**
+     * Function for getting the searchable text of a value
+     * @param d value to get the text of
+     * @return text to search, or {@code null} if there isn't any
+     */
+    CharSequence text(D d);
+}
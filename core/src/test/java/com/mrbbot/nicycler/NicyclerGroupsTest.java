@@ -0,0 +1,295 @@
+package com.mrbbot.nicycler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the positions and notifications of grouped projections
+ */
+public class NicyclerGroupsTest {
+    private static class Item {
+        int key;
+
+        Item(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(key);
+        }
+    }
+
+    private static final Comparator<Item> BY_KEY = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+        }
+    };
+
+    /**
+     * Groups items by their tens
+     */
+    private static final GroupKey<Item, Integer> TENS = new GroupKey<Item, Integer>() {
+        @Override
+        public Integer group(Item item) {
+            return item.key / 10;
+        }
+    };
+
+    /**
+     * Records notifications as strings, and replays them onto the list the observer last saw
+     */
+    private static class Recorder implements NicyclerProjection.Observer {
+        final List<String> events = new ArrayList<>();
+        List<Object> shown;
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("inserted " + position + " " + count);
+            if(shown != null) for(int i = 0; i < count; i++) shown.add(position, null);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("removed " + position + " " + count);
+            if(shown != null) shown.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("moved " + fromPosition + " " + toPosition);
+            if(shown != null) shown.add(toPosition, shown.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("changed " + position + " " + count + " " + payload);
+            // Changed rows get bound again, so forget what they showed
+            if(shown != null) for(int i = position; i < position + count; i++) shown.set(i, null);
+        }
+
+        @Override
+        public void onReset() {
+            events.add("reset");
+            shown = null;
+        }
+    }
+
+    private Recorder recorder;
+    private NicyclerProjection<Item> projection;
+    private NicyclerGroups<Item> groups;
+
+    @Before
+    public void setUp() {
+        recorder = new Recorder();
+        projection = new NicyclerProjection<>(new NicyclerProjection.Observer() {
+            @Override
+            public void onInserted(int position, int count) {
+                groups.onInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                groups.onRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                groups.onMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                groups.onChanged(position, count, payload);
+            }
+
+            @Override
+            public void onReset() {
+                groups.onReset();
+            }
+        });
+        groups = new NicyclerGroups<>(projection, TENS, recorder);
+    }
+
+    private static List<Item> items(int... keys) {
+        List<Item> items = new ArrayList<>();
+        for(int key : keys) items.add(new Item(key));
+        return items;
+    }
+
+    /**
+     * Sets the dataset and groups it, then forgets the notifications so far
+     */
+    private List<Item> show(int... keys) {
+        List<Item> items = items(keys);
+        projection.set(items);
+        recorder.events.clear();
+        recorder.shown = NicyclerGroups.flatten(projection.get(), TENS);
+        return items;
+    }
+
+    private void assertEvents(String... events) {
+        assertEquals(Arrays.asList(events), recorder.events);
+    }
+
+    /**
+     * Checks the groups match regrouping from scratch, and that replaying the notifications gets
+     * the observer there too
+     */
+    private void assertGrouped() {
+        List<Object> expected = NicyclerGroups.flatten(projection.get(), TENS);
+        assertEquals(expected.size(), groups.count());
+        for(int i = 0; i < expected.size(); i++) {
+            Object e = expected.get(i);
+            if(e instanceof NicyclerGroups.Header) {
+                assertTrue(groups.isHeader(i));
+                assertEquals(((NicyclerGroups.Header) e).key, groups.header(i));
+                assertEquals(-1, groups.itemPosition(i));
+            } else {
+                assertFalse(groups.isHeader(i));
+                assertSame(e, projection.get().get(groups.itemPosition(i)));
+                assertEquals(i, groups.position(groups.itemPosition(i)));
+            }
+        }
+        if(recorder.shown == null) {
+            recorder.shown = expected;
+            return;
+        }
+        assertEquals(expected.size(), recorder.shown.size());
+        for(int i = 0; i < expected.size(); i++) {
+            Object shown = recorder.shown.get(i);
+            if(shown == null) continue;
+            if(shown instanceof NicyclerGroups.Header) assertEquals(expected.get(i), shown);
+            else assertSame(expected.get(i), shown);
+        }
+        recorder.shown = expected;
+    }
+
+    @Test
+    public void headersPrecedeEachGroup() {
+        projection.sorter = BY_KEY;
+        show(21, 1, 12, 2, 11);
+        assertEquals(8, groups.count());
+        assertTrue(groups.isHeader(0));
+        assertEquals(0, groups.header(0));
+        assertEquals(1, groups.itemPosition(2));
+        assertTrue(groups.isHeader(3));
+        assertEquals(1, groups.header(3));
+        assertTrue(groups.isHeader(6));
+        assertEquals(2, groups.header(6));
+        assertEquals(4, groups.itemPosition(7));
+        assertGrouped();
+    }
+
+    @Test
+    public void addingToGroupInsertsOnlyItem() {
+        projection.sorter = BY_KEY;
+        show(1, 2, 11, 12, 21);
+        projection.add(items(13));
+        assertEvents("inserted 6 1");
+        assertGrouped();
+    }
+
+    @Test
+    public void addingNewGroupInsertsHeader() {
+        projection.sorter = BY_KEY;
+        show(1, 2, 11, 12, 21);
+        projection.add(items(31));
+        assertEvents("inserted 8 1", "inserted 8 1");
+        assertGrouped();
+    }
+
+    @Test
+    public void removingWholeGroupRemovesHeader() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 11, 21);
+        projection.remove(Collections.singletonList(items.get(2)));
+        assertEvents("removed 3 2");
+        assertGrouped();
+    }
+
+    @Test
+    public void removingStartOfGroupKeepsHeader() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 11, 12, 21);
+        projection.remove(Collections.singletonList(items.get(2)));
+        assertEvents("removed 4 1");
+        assertGrouped();
+    }
+
+    @Test
+    public void removingBetweenGroupsMergesThem() {
+        List<Item> items = show(1, 11, 2);
+        projection.remove(Collections.singletonList(items.get(1)));
+        assertEvents("removed 2 2", "removed 2 1");
+        assertGrouped();
+    }
+
+    @Test
+    public void changingGroupRebindsHeader() {
+        List<Item> items = show(1, 11, 21);
+        items.get(1).key = 15;
+        projection.update(items.get(1), "payload");
+        assertEvents("changed 3 1 payload");
+        items.get(1).key = 33;
+        projection.update(items.get(1), "payload");
+        assertEvents("changed 3 1 payload", "changed 2 1 null", "changed 3 1 payload");
+        assertGrouped();
+    }
+
+    @Test
+    public void changingGroupMovesItem() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 11, 21);
+        items.get(1).key = 22;
+        projection.update(items.get(1), null);
+        assertGrouped();
+        items.get(0).key = 12;
+        projection.update(items.get(0), null);
+        assertGrouped();
+        assertEquals(6, groups.count());
+    }
+
+    @Test
+    public void randomChangesStayGrouped() {
+        Random random = new Random(42);
+        for(int run = 0; run < 200; run++) {
+            setUp();
+            if(random.nextBoolean()) projection.sorter = BY_KEY;
+            if(random.nextBoolean()) projection.refreshFraction = 2f;
+            List<Item> dataset = new ArrayList<>();
+            for(int i = random.nextInt(20); i > 0; i--) dataset.add(new Item(random.nextInt(50)));
+            projection.set(dataset);
+            recorder.shown = null;
+            boolean batch = random.nextBoolean();
+            if(batch) projection.beginBatch();
+            for(int op = 0; op < 10; op++) {
+                int kind = random.nextInt(3);
+                if(kind == 0 || projection.dataset.isEmpty()) {
+                    projection.add(items(random.nextInt(50), random.nextInt(50)));
+                } else if(kind == 1) {
+                    projection.remove(Collections.singletonList(projection.dataset.get(random.nextInt(projection.dataset.size()))));
+                } else {
+                    Item item = projection.dataset.get(random.nextInt(projection.dataset.size()));
+                    item.key = random.nextInt(50);
+                    projection.update(item, null);
+                }
+                if(!batch) assertGrouped();
+            }
+            if(batch) {
+                projection.commit();
+                assertGrouped();
+            }
+        }
+    }
+}
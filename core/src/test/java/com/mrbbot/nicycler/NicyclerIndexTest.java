@@ -0,0 +1,217 @@
+package com.mrbbot.nicycler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks searches of the text index match checking every item
+ */
+public class NicyclerIndexTest {
+    private static class Item {
+        String text;
+
+        Item(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final TextKey<Item> TEXT = new TextKey<Item>() {
+        @Override
+        public CharSequence text(Item item) {
+            return item.text;
+        }
+    };
+
+    private static final Comparator<Item> BY_LENGTH = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.text.length() < b.text.length() ? -1 : (a.text.length() == b.text.length() ? 0 : 1);
+        }
+    };
+
+    private static final NicyclerProjection.Observer IGNORE = new NicyclerProjection.Observer() {
+        @Override
+        public void onInserted(int position, int count) { }
+
+        @Override
+        public void onRemoved(int position, int count) { }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) { }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) { }
+
+        @Override
+        public void onReset() { }
+    };
+
+    private NicyclerIndex<Item> index;
+
+    @Before
+    public void setUp() {
+        index = new NicyclerIndex<>(TEXT, new ArrayList<Item>());
+    }
+
+    private List<Item> search(String query) {
+        List<Item> found = new ArrayList<>();
+        index.search(query, found);
+        return found;
+    }
+
+    /**
+     * Checks every item by hand, which is what the index should match
+     */
+    private static Filter<Item> scan(final String query) {
+        return new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item.text.toLowerCase().contains(query.toLowerCase());
+            }
+        };
+    }
+
+    private static String word(Random random) {
+        char[] chars = new char[random.nextInt(12)];
+        for(int i = 0; i < chars.length; i++) chars[i] = "abcdeABC ".charAt(random.nextInt(9));
+        return new String(chars);
+    }
+
+    @Test
+    public void searchIgnoresCase() {
+        Item hello = new Item("Hello World");
+        Item help = new Item("HELP");
+        index.set(Arrays.asList(hello, help, new Item("other")));
+        assertEquals(Arrays.asList(hello, help), search("hel"));
+        assertEquals(Collections.singletonList(hello), search("o w"));
+        assertEquals(Collections.singletonList(hello), search("world"));
+        assertTrue(search("worlds").isEmpty());
+        assertTrue(search("xyz").isEmpty());
+    }
+
+    @Test
+    public void shortQueriesCheckEveryItem() {
+        Item a = new Item("ab");
+        Item b = new Item("b");
+        index.set(Arrays.asList(a, b));
+        assertEquals(Arrays.asList(a, b), search("b"));
+        assertEquals(Collections.singletonList(a), search("ab"));
+        assertEquals(Arrays.asList(a, b), search(""));
+    }
+
+    @Test
+    public void updatesReplaceText() {
+        Item item = new Item("apple");
+        index.set(Collections.singletonList(item));
+        item.text = "banana";
+        index.update(item);
+        assertTrue(search("app").isEmpty());
+        assertEquals(Collections.singletonList(item), search("nan"));
+    }
+
+    @Test
+    public void removedItemsAreNotFound() {
+        Item a = new Item("apple");
+        Item b = new Item("apples");
+        index.set(Arrays.asList(a, b));
+        index.remove(a);
+        assertEquals(Collections.singletonList(b), search("apple"));
+        assertNull(index.text(a));
+    }
+
+    @Test
+    public void releasedIndexIsRebuiltFromDataset() {
+        List<Item> dataset = new ArrayList<>();
+        index = new NicyclerIndex<>(TEXT, dataset);
+        Item item = new Item("apple");
+        dataset.add(item);
+        index.release();
+        assertEquals(0, index.size());
+        assertEquals(Collections.singletonList(item), search("ppl"));
+        assertEquals(1, index.size());
+        assertEquals("apple", index.text(item));
+    }
+
+    @Test
+    public void narrowsLongerQueries() {
+        Filter<Item> ab = index.query("AB");
+        assertTrue(index.query("abc").narrows(ab));
+        assertFalse(index.query("a").narrows(ab));
+        assertFalse(new NicyclerIndex<>(TEXT, new ArrayList<Item>()).query("abc").narrows(ab));
+    }
+
+    @Test
+    public void randomChangesMatchScanning() {
+        Random random = new Random(7);
+        List<Item> items = new ArrayList<>();
+        for(int i = 0; i < 200; i++) items.add(new Item(word(random)));
+        index.set(items);
+        for(int op = 0; op < 5000; op++) {
+            int kind = random.nextInt(4);
+            if(kind == 0 || items.isEmpty()) {
+                Item item = new Item(word(random));
+                items.add(item);
+                index.add(item);
+            } else if(kind == 1) {
+                index.remove(items.remove(random.nextInt(items.size())));
+            } else if(kind == 2) {
+                Item item = items.get(random.nextInt(items.size()));
+                item.text = word(random);
+                index.update(item);
+            } else {
+                String query = word(random).toLowerCase();
+                Filter<Item> expected = scan(query);
+                List<Item> found = search(query);
+                int matches = 0;
+                for(Item item : items) if(expected.accept(item)) matches++;
+                assertEquals(matches, found.size());
+                for(Item item : found) assertTrue(expected.accept(item));
+            }
+        }
+    }
+
+    @Test
+    public void projectionSearchesIndex() {
+        Random random = new Random(11);
+        for(int run = 0; run < 50; run++) {
+            NicyclerProjection<Item> projection = new NicyclerProjection<>(IGNORE);
+            projection.index(TEXT);
+            if(random.nextBoolean()) projection.sorter = BY_LENGTH;
+            List<Item> items = new ArrayList<>();
+            for(int i = 0; i < 100; i++) items.add(new Item(word(random)));
+            projection.set(items);
+            String query = random.nextBoolean() ? "abc" : "ab";
+            projection.filter(projection.index.query(query));
+
+            for(int op = 0; op < 50; op++) {
+                int kind = random.nextInt(3);
+                if(kind == 0) {
+                    projection.add(Collections.singletonList(new Item(word(random))));
+                } else if(kind == 1 && !projection.dataset.isEmpty()) {
+                    projection.remove(Collections.singletonList(projection.dataset.get(random.nextInt(projection.dataset.size()))));
+                } else if(!projection.dataset.isEmpty()) {
+                    Item item = projection.dataset.get(random.nextInt(projection.dataset.size()));
+                    item.text = word(random);
+                    projection.update(item, null);
+                }
+                if(random.nextInt(10) == 0) projection.reset();
+                List<Item> expected = NicyclerProjection.project(projection.dataset, scan(query), projection.sorter, 0, null);
+                assertEquals(expected, projection.get());
+            }
+        }
+    }
+}
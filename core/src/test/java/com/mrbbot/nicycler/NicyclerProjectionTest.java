@@ -0,0 +1,691 @@
+package com.mrbbot.nicycler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the notifications the projection sends its observer
+ */
+public class NicyclerProjectionTest {
+    private static class Item {
+        int key;
+
+        Item(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(key);
+        }
+    }
+
+    private static final Comparator<Item> BY_KEY = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+        }
+    };
+
+    private static final LongKey<Item> KEY = new LongKey<Item>() {
+        @Override
+        public long key(Item item) {
+            return item.key;
+        }
+    };
+
+    /**
+     * Accepts items with at least a minimum key, and narrows any with a lower minimum
+     */
+    private static class AtLeast implements NarrowingFilter<Item> {
+        final int min;
+
+        AtLeast(int min) {
+            this.min = min;
+        }
+
+        @Override
+        public boolean accept(Item item) {
+            return item.key >= min;
+        }
+
+        @Override
+        public boolean narrows(Filter<Item> other) {
+            return other instanceof AtLeast && ((AtLeast) other).min <= min;
+        }
+    }
+
+    /**
+     * Records notifications as strings, and replays them onto the list the observer last saw
+     */
+    private static class Recorder implements NicyclerProjection.Observer {
+        final List<String> events = new ArrayList<>();
+        List<Item> shown;
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("inserted " + position + " " + count);
+            if(shown != null) for(int i = 0; i < count; i++) shown.add(position, null);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("removed " + position + " " + count);
+            if(shown != null) shown.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("moved " + fromPosition + " " + toPosition);
+            if(shown != null) shown.add(toPosition, shown.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("changed " + position + " " + count + " " + payload);
+            if(shown != null) assertTrue(position >= 0 && position + count <= shown.size());
+        }
+
+        @Override
+        public void onReset() {
+            events.add("reset");
+            shown = null;
+        }
+    }
+
+    private Recorder recorder;
+    private NicyclerProjection<Item> projection;
+
+    @Before
+    public void setUp() {
+        recorder = new Recorder();
+        projection = new NicyclerProjection<>(recorder);
+    }
+
+    private static List<Item> items(int... keys) {
+        List<Item> items = new ArrayList<>();
+        for(int key : keys) items.add(new Item(key));
+        return items;
+    }
+
+    /**
+     * Sets the dataset and builds the projection, then forgets the notifications so far
+     */
+    private List<Item> show(int... keys) {
+        List<Item> items = items(keys);
+        projection.set(items);
+        projection.get();
+        recorder.events.clear();
+        return items;
+    }
+
+    private void assertEvents(String... events) {
+        assertEquals(Arrays.asList(events), recorder.events);
+    }
+
+    @Test
+    public void setResets() {
+        projection.set(items(1, 2, 3));
+        assertEvents("reset");
+        assertEquals(3, projection.get().size());
+    }
+
+    @Test
+    public void addBeforeProjectionResets() {
+        projection.set(items(1));
+        projection.add(items(2));
+        assertEvents("reset", "reset");
+    }
+
+    @Test
+    public void addInsertsInSortedPosition() {
+        projection.sorter = BY_KEY;
+        show(1, 3, 5);
+        projection.add(items(4, 0));
+        assertEvents("inserted 2 1", "inserted 0 1");
+        assertEquals("[0, 1, 3, 4, 5]", projection.get().toString());
+    }
+
+    @Test
+    public void addKeepsOrderOfEqualItems() {
+        projection.sorter = BY_KEY;
+        List<Item> shown = show(1, 1);
+        List<Item> added = items(1);
+        projection.add(added);
+        assertEvents("inserted 2 1");
+        assertSame(shown.get(1), projection.get().get(1));
+        assertSame(added.get(0), projection.get().get(2));
+    }
+
+    @Test
+    public void addFilteredOutIsNotNotified() {
+        projection.filter = new AtLeast(5);
+        show(5, 6);
+        projection.add(items(1));
+        assertEvents();
+    }
+
+    @Test
+    public void removeCoalescesRunsFromTheEnd() {
+        List<Item> items = show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.remove(Arrays.asList(items.get(3), items.get(7), items.get(2), items.get(4)));
+        assertEvents("removed 7 1", "removed 2 3");
+        assertEquals("[0, 1, 5, 6, 8, 9]", projection.get().toString());
+        assertEquals("[0, 1, 5, 6, 8, 9]", projection.dataset.toString());
+    }
+
+    @Test
+    public void removeIgnoresDuplicates() {
+        List<Item> items = show(0, 1, 2);
+        projection.remove(Arrays.asList(items.get(1), items.get(1)));
+        assertEvents("removed 1 1");
+    }
+
+    @Test
+    public void removeMostResets() {
+        List<Item> items = show(0, 1, 2, 3);
+        projection.remove(items.subList(0, 3));
+        assertEvents("reset");
+        assertEquals("[3]", projection.get().toString());
+    }
+
+    @Test
+    public void removeMostAnimatesWithHigherRefreshFraction() {
+        projection.refreshFraction = 1f;
+        List<Item> items = show(0, 1, 2, 3);
+        projection.remove(items.subList(0, 3));
+        assertEvents("removed 0 3");
+    }
+
+    @Test
+    public void updateUnsortedChangesInPlace() {
+        List<Item> items = show(0, 1, 2);
+        projection.update(items.get(1), "payload");
+        assertEvents("changed 1 1 payload");
+    }
+
+    @Test
+    public void updateMovesSortedItem() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(0, 1, 2, 3, 4);
+        items.get(1).key = 10;
+        projection.update(items.get(1), null);
+        assertEvents("moved 1 4", "changed 4 1 null");
+    }
+
+    @Test
+    public void updateIntoAndOutOfFilter() {
+        projection.filter = new AtLeast(5);
+        List<Item> items = show(1, 5, 6);
+        items.get(1).key = 0;
+        projection.update(items.get(1), null);
+        items.get(0).key = 7;
+        projection.update(items.get(0), null);
+        assertEvents("removed 0 1", "inserted 0 1");
+    }
+
+    @Test
+    public void updateManyCoalescesChangesWithTheSamePayload() {
+        List<Item> items = show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.update(Arrays.asList(items.get(4), items.get(3), items.get(5)), "payload");
+        assertEvents("changed 3 3 payload");
+    }
+
+    @Test
+    public void updateManySplitsChangesWithDifferentPayloads() {
+        List<Item> items = show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.beginBatch();
+        projection.update(items.get(3), "a");
+        projection.update(items.get(4), "b");
+        projection.commit();
+        assertEvents("changed 3 1 a", "changed 4 1 b");
+    }
+
+    @Test
+    public void updateManyMovesOnlyUpdatedItems() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        items.get(1).key = 20;
+        items.get(2).key = 21;
+        projection.update(Arrays.asList(items.get(1), items.get(2)), null);
+        assertEvents("moved 1 9", "moved 1 9", "changed 8 2 null");
+    }
+
+    @Test
+    public void narrowingFilterRefines() {
+        show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.filter(new AtLeast(5));
+        assertEvents("removed 0 5");
+        projection.filter(new AtLeast(8));
+        assertEvents("removed 0 5", "removed 0 3");
+    }
+
+    @Test
+    public void wideningFilterRefinesEarlierProjection() {
+        show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.filter(new AtLeast(5));
+        projection.filter(new AtLeast(3));
+        assertEvents("removed 0 5", "inserted 0 2");
+        assertEquals("[3, 4, 5, 6, 7, 8, 9]", projection.get().toString());
+    }
+
+    @Test
+    public void anyFilterRefinesUnfilteredProjection() {
+        show(0, 1, 2);
+        projection.filter(new AtLeast(1));
+        projection.filter(new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item.key != 1;
+            }
+        });
+        assertEvents("removed 0 1", "removed 0 1", "inserted 0 1");
+        assertEquals("[0, 2]", projection.get().toString());
+    }
+
+    @Test
+    public void otherFilterResets() {
+        projection.filter = new AtLeast(1);
+        show(0, 1, 2);
+        projection.filter(new AtLeast(0));
+        assertEvents("reset");
+        assertEquals("[0, 1, 2]", projection.get().toString());
+    }
+
+    @Test
+    public void batchNotifiesDifferencesOnCommit() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(0, 2, 4, 6);
+        projection.beginBatch();
+        projection.add(items(3, 7));
+        projection.remove(Collections.singletonList(items.get(0)));
+        assertEvents();
+        assertFalse(projection.commit());
+        assertEvents("removed 0 1", "inserted 1 1", "inserted 4 1");
+    }
+
+    @Test
+    public void nestedBatchCommitsOnce() {
+        show(0);
+        projection.beginBatch();
+        projection.beginBatch();
+        projection.add(items(1));
+        assertFalse(projection.commit());
+        assertEvents();
+        projection.commit();
+        assertEvents("inserted 1 1");
+    }
+
+    @Test
+    public void bigBatchResets() {
+        projection.batchRefreshThreshold = 1;
+        show(0);
+        projection.beginBatch();
+        projection.add(items(1, 2));
+        assertTrue(projection.commit());
+        assertEvents("reset");
+    }
+
+    @Test
+    public void batchedUpdatesWithDifferentPayloadsRebindEverything() {
+        List<Item> items = show(0, 1);
+        projection.beginBatch();
+        projection.update(items.get(0), "a");
+        projection.update(items.get(0), "b");
+        projection.commit();
+        assertEvents("changed 0 1 null");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitWithoutBatchThrows() {
+        projection.commit();
+    }
+
+    @Test
+    public void rebuildReusesDiscardedProjection() {
+        projection.sorter = BY_KEY;
+        show(3, 1, 2);
+        List<Item> projected = projection.get();
+        projection.reset();
+        assertSame(projected, projection.get());
+        assertEquals("[1, 2, 3]", projected.toString());
+    }
+
+    @Test
+    public void refiningKeepsEarlierProjectionsIntact() {
+        show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        projection.filter(new AtLeast(5));
+        projection.filter(new AtLeast(8));
+        projection.filter(new AtLeast(6));
+        projection.filter(new AtLeast(2));
+        assertEquals("[2, 3, 4, 5, 6, 7, 8, 9]", projection.get().toString());
+    }
+
+    @Test
+    public void hiddenItemIsRemovedAndShownAgain() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 3);
+        projection.hide(items.get(1));
+        assertEvents("removed 1 1");
+        assertEquals("[1, 3]", projection.get().toString());
+        projection.reset();
+        assertEquals("[1, 3]", projection.get().toString());
+        recorder.events.clear();
+
+        items.get(1).key = 4;
+        projection.show(items.get(1));
+        assertEvents("inserted 2 1");
+        assertEquals("[1, 3, 4]", projection.get().toString());
+    }
+
+    @Test
+    public void hiddenItemIgnoresUpdates() {
+        List<Item> items = show(1, 2);
+        projection.hide(items.get(0));
+        recorder.events.clear();
+        projection.update(items.get(0), null);
+        assertEvents();
+        assertEquals("[2]", projection.get().toString());
+    }
+
+    @Test
+    public void removedHiddenItemIsForgotten() {
+        List<Item> items = show(1, 2);
+        projection.hide(items.get(0));
+        projection.remove(items.subList(0, 1));
+        projection.show(items.get(0));
+        assertEvents("removed 0 1");
+        assertEquals("[2]", projection.get().toString());
+        assertNull(projection.hidden());
+    }
+
+    @Test
+    public void hiddenItemsAreShownInBatch() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 3, 4);
+        projection.hide(items.get(1));
+        projection.hide(items.get(2));
+        recorder.events.clear();
+
+        projection.beginBatch();
+        projection.show(items.get(1));
+        projection.show(items.get(2));
+        projection.remove(items.subList(2, 3));
+        projection.commit();
+        assertEvents("inserted 1 1");
+        assertEquals("[1, 2, 4]", projection.get().toString());
+    }
+
+    @Test
+    public void itemHiddenAndShownInBatchCanMove() {
+        projection.sorter = BY_KEY;
+        List<Item> items = show(1, 2, 3);
+        projection.beginBatch();
+        projection.hide(items.get(0));
+        items.get(0).key = 4;
+        projection.show(items.get(0));
+        projection.commit();
+        assertEvents("moved 0 2", "changed 2 1 null");
+        assertEquals("[2, 3, 4]", projection.get().toString());
+    }
+
+    @Test
+    public void addAfterIndexReleasedIsIndexedOnce() {
+        projection.index(new TextKey<Item>() {
+            @Override
+            public CharSequence text(Item item) {
+                return "item " + item.key;
+            }
+        });
+        show(1, 2);
+        projection.filter(projection.index.query("item"));
+        // Loading keeps the projection but releases the index, which is rebuilt by the next search
+        projection.load(new ArrayList<>(projection.dataset));
+        projection.add(items(3, 4));
+        assertEquals("[1, 2, 3, 4]", projection.get().toString());
+        projection.reset();
+        assertEquals("[1, 2, 3, 4]", projection.get().toString());
+    }
+
+    @Test
+    public void releasedProjectionIsRebuiltLazily() {
+        projection.sorter = KeyedSorter.byLong(KEY);
+        show(3, 1, 2);
+        projection.releaseAll();
+        assertEquals(0, projection.projectedSize());
+        assertEquals(0, projection.keyedSize());
+        assertEquals("[1, 2, 3]", projection.get().toString());
+        assertEquals(3, projection.keyedSize());
+        assertEvents();
+    }
+
+    @Test
+    public void changesAfterReleaseReset() {
+        show(1, 2);
+        projection.release();
+        projection.add(items(3));
+        assertEvents("reset");
+        assertEquals("[1, 2, 3]", projection.get().toString());
+    }
+
+    @Test
+    public void keyedSortMatchesComparator() {
+        Key<Item, String> name = new Key<Item, String>() {
+            @Override
+            public String key(Item item) {
+                return String.valueOf(item.key % 7);
+            }
+        };
+        final KeyedSorter<Item> keyed = KeyedSorter.byKey(name).descending().thenByLong(KEY);
+        Random random = new Random(7);
+        List<Item> items = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) items.add(new Item(random.nextInt(100)));
+        projection.sorter = keyed;
+        projection.set(items);
+
+        List<Item> expected = new ArrayList<>(items);
+        Collections.sort(expected, new Comparator<Item>() {
+            @Override
+            public int compare(Item a, Item b) {
+                return keyed.compare(a, b);
+            }
+        });
+        List<Item> projected = projection.get();
+        for(int i = 0; i < expected.size(); i++) assertSame(expected.get(i), projected.get(i));
+    }
+
+    @Test
+    public void keysAreOnlyExtractedAgainForUpdatedItems() {
+        final int[] extracted = new int[1];
+        projection.sorter = KeyedSorter.byLong(new LongKey<Item>() {
+            @Override
+            public long key(Item item) {
+                extracted[0]++;
+                return item.key;
+            }
+        });
+        List<Item> items = show(5, 3, 8, 1, 9, 2);
+        assertEquals(6, extracted[0]);
+        projection.reset();
+        projection.get();
+        assertEquals(6, extracted[0]);
+
+        items.get(0).key = 0;
+        projection.update(items.get(0), null);
+        assertEquals(7, extracted[0]);
+        assertEquals("[0, 1, 2, 3, 8, 9]", projection.get().toString());
+        assertEquals("[reset, moved 3 0, changed 0 1 null]", recorder.events.toString());
+    }
+
+    @Test
+    public void limitKeepsFirstItemsInOrder() {
+        projection.sorter = BY_KEY;
+        projection.limit(3);
+        show(5, 1, 4, 2, 3);
+        assertEquals("[1, 2, 3]", projection.get().toString());
+    }
+
+    @Test
+    public void addInsideLimitPushesLastItemOut() {
+        projection.sorter = BY_KEY;
+        projection.limit(3);
+        show(1, 3, 5, 7);
+        projection.add(items(2));
+        assertEvents("inserted 1 1", "removed 3 1");
+        assertEquals("[1, 2, 3]", projection.get().toString());
+    }
+
+    @Test
+    public void addAfterLimitIsNotNotified() {
+        projection.sorter = BY_KEY;
+        projection.limit(3);
+        show(1, 3, 5);
+        projection.add(items(9));
+        assertEvents();
+        assertEquals("[1, 3, 5]", projection.get().toString());
+    }
+
+    @Test
+    public void removeFromFullLimitFillsTheEnd() {
+        projection.sorter = BY_KEY;
+        projection.limit(3);
+        List<Item> items = show(1, 3, 5, 7);
+        projection.remove(Collections.singletonList(items.get(1)));
+        assertEvents("removed 1 1", "inserted 2 1");
+        assertEquals("[1, 5, 7]", projection.get().toString());
+    }
+
+    @Test
+    public void updateMovingAfterLimitFillsTheEnd() {
+        projection.sorter = BY_KEY;
+        projection.limit(3);
+        List<Item> items = show(1, 3, 5, 7);
+        items.get(0).key = 9;
+        projection.update(items.get(0), null);
+        assertEvents("removed 0 1", "inserted 2 1");
+        assertEquals("[3, 5, 7]", projection.get().toString());
+    }
+
+    @Test
+    public void raisingLimitAppendsNextItems() {
+        projection.sorter = BY_KEY;
+        projection.limit(2);
+        show(4, 1, 3, 2, 5);
+        projection.limit(4);
+        assertEvents("inserted 2 2");
+        assertEquals("[1, 2, 3, 4]", projection.get().toString());
+        projection.limit(0);
+        assertEvents("inserted 2 2", "inserted 4 1");
+        projection.limit(1);
+        assertEvents("inserted 2 2", "inserted 4 1", "removed 1 4");
+        assertEquals("[1]", projection.get().toString());
+    }
+
+    @Test
+    public void randomMutationsKeepLimitedObserverInSync() {
+        Random random = new Random(25);
+        for(int run = 0; run < 500; run++) {
+            setUp();
+            if(random.nextBoolean()) projection.sorter = random.nextBoolean() ? BY_KEY : KeyedSorter.byLong(KEY);
+            if(random.nextBoolean()) projection.filter = new AtLeast(3);
+            projection.limit(1 + random.nextInt(8));
+            List<Item> items = new ArrayList<>();
+            for(int i = random.nextInt(30); i > 0; i--) items.add(new Item(random.nextInt(10)));
+            projection.set(items);
+            recorder.shown = new ArrayList<>(projection.get());
+
+            for(int op = random.nextInt(20); op > 0; op--) {
+                List<Item> dataset = projection.dataset;
+                int kind = random.nextInt(5);
+                if(kind == 0 || dataset.isEmpty()) {
+                    projection.add(items(random.nextInt(10), random.nextInt(10)));
+                } else if(kind == 1) {
+                    projection.remove(Collections.singletonList(dataset.get(random.nextInt(dataset.size()))));
+                } else if(kind == 2) {
+                    Item item = dataset.get(random.nextInt(dataset.size()));
+                    item.key = random.nextInt(10);
+                    projection.update(item, null);
+                } else if(kind == 3) {
+                    List<Item> updated = new ArrayList<>();
+                    for(int i = 0; i < 3; i++) {
+                        Item item = dataset.get(random.nextInt(dataset.size()));
+                        item.key = random.nextInt(10);
+                        updated.add(item);
+                    }
+                    projection.update(updated, null);
+                } else {
+                    projection.limit(random.nextInt(10));
+                }
+
+                List<Item> expected = NicyclerProjection.project(projection.dataset, projection.filter, projection.sorter, 0, null);
+                int limit = projection.limit();
+                if(limit > 0 && expected.size() > limit) expected = expected.subList(0, limit);
+                List<Item> projected = projection.get();
+                assertEquals(expected, projected);
+                if(recorder.shown != null) {
+                    assertEquals(projected.size(), recorder.shown.size());
+                    for(int i = 0; i < projected.size(); i++) {
+                        if(recorder.shown.get(i) != null) assertSame(projected.get(i), recorder.shown.get(i));
+                    }
+                }
+                recorder.shown = new ArrayList<>(projected);
+            }
+        }
+    }
+
+    @Test
+    public void randomMutationsKeepObserverInSync() {
+        Random random = new Random(42);
+        for(int run = 0; run < 500; run++) {
+            setUp();
+            if(random.nextBoolean()) projection.sorter = random.nextBoolean() ? BY_KEY : KeyedSorter.byLong(KEY);
+            if(random.nextBoolean()) projection.filter = new AtLeast(3);
+            List<Item> items = new ArrayList<>();
+            for(int i = random.nextInt(30); i > 0; i--) items.add(new Item(random.nextInt(10)));
+            projection.set(items);
+            recorder.shown = new ArrayList<>(projection.get());
+
+            for(int op = random.nextInt(20); op > 0; op--) {
+                List<Item> dataset = projection.dataset;
+                int kind = random.nextInt(4);
+                if(kind == 0 || dataset.isEmpty()) {
+                    projection.add(items(random.nextInt(10), random.nextInt(10)));
+                } else if(kind == 1) {
+                    projection.remove(Arrays.asList(dataset.get(random.nextInt(dataset.size())), dataset.get(random.nextInt(dataset.size()))));
+                } else if(kind == 2) {
+                    Item item = dataset.get(random.nextInt(dataset.size()));
+                    item.key = random.nextInt(10);
+                    projection.update(item, null);
+                } else {
+                    List<Item> updated = new ArrayList<>();
+                    for(int i = 0; i < 3; i++) {
+                        Item item = dataset.get(random.nextInt(dataset.size()));
+                        item.key = random.nextInt(10);
+                        updated.add(item);
+                    }
+                    projection.update(updated, null);
+                }
+
+                List<Item> expected = NicyclerProjection.project(projection.dataset, projection.filter, projection.sorter, 0, null);
+                List<Item> projected = projection.get();
+                assertEquals(expected, projected);
+                if(recorder.shown != null) {
+                    assertEquals(projected.size(), recorder.shown.size());
+                    for(int i = 0; i < projected.size(); i++) {
+                        if(recorder.shown.get(i) != null) assertSame(projected.get(i), recorder.shown.get(i));
+                    }
+                }
+                recorder.shown = new ArrayList<>(projected);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.mrbbot.nicycler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that changes to a store are applied once and passed on to each projection of it
+ */
+public class NicyclerStoreTest {
+    private static class Item {
+        int key;
+
+        Item(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(key);
+        }
+    }
+
+    private static final Comparator<Item> BY_KEY = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+        }
+    };
+
+    private static final Filter<Item> EVEN = new Filter<Item>() {
+        @Override
+        public boolean accept(Item item) {
+            return item.key % 2 == 0;
+        }
+    };
+
+    /**
+     * Records notifications as strings
+     */
+    private static class Recorder implements NicyclerProjection.Observer {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("inserted " + position + " " + count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("removed " + position + " " + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("moved " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("changed " + position + " " + count + " " + payload);
+        }
+
+        @Override
+        public void onReset() {
+            events.add("reset");
+        }
+
+        void assertEvents(String... expected) {
+            assertEquals(Arrays.asList(expected), events);
+            events.clear();
+        }
+    }
+
+    private NicyclerStore<Item> store;
+    private Recorder evenRecorder, sortedRecorder;
+    private NicyclerStore.Member<Item> even, sorted;
+
+    @Before
+    public void setUp() {
+        store = new NicyclerStore<>();
+        evenRecorder = new Recorder();
+        sortedRecorder = new Recorder();
+        even = new NicyclerStore.Member<>(new NicyclerProjection<Item>(evenRecorder));
+        even.projection.filter = EVEN;
+        sorted = new NicyclerStore.Member<>(new NicyclerProjection<Item>(sortedRecorder));
+        sorted.projection.sorter = BY_KEY;
+        store.attach(even, false);
+        store.attach(sorted, false);
+    }
+
+    private List<Item> show(int... keys) {
+        List<Item> items = new ArrayList<>();
+        for(int key : keys) items.add(new Item(key));
+        store.set(items);
+        even.projection.get();
+        sorted.projection.get();
+        evenRecorder.events.clear();
+        sortedRecorder.events.clear();
+        return items;
+    }
+
+    @Test
+    public void projectionsShareTheDataset() {
+        show(3, 2, 1);
+        assertSame(even.projection.dataset, sorted.projection.dataset);
+        assertEquals("[3, 2, 1]", store.get().toString());
+        assertEquals("[2]", even.projection.get().toString());
+        assertEquals("[1, 2, 3]", sorted.projection.get().toString());
+    }
+
+    @Test
+    public void addIsNotifiedPerProjection() {
+        show(4, 1);
+        store.add(new Item(2), new Item(3));
+        evenRecorder.assertEvents("inserted 1 1");
+        sortedRecorder.assertEvents("inserted 1 1", "inserted 2 1");
+        assertEquals("[4, 1, 2, 3]", store.get().toString());
+        assertEquals("[4, 2]", even.projection.get().toString());
+        assertEquals("[1, 2, 3, 4]", sorted.projection.get().toString());
+    }
+
+    @Test
+    public void removeIsAppliedOnce() {
+        show(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        store.remove(new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item.key == 4;
+            }
+        });
+        evenRecorder.assertEvents("removed 2 1");
+        sortedRecorder.assertEvents("removed 4 1");
+        assertEquals(9, store.size());
+        assertEquals("[0, 2, 6, 8]", even.projection.get().toString());
+    }
+
+    @Test
+    public void updateIsNotifiedPerProjection() {
+        List<Item> items = show(1, 2, 3);
+        final Item changed = items.get(0);
+        changed.key = 4;
+        store.update(new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item == changed;
+            }
+        }, "key");
+        // The changed item was added first, so it's ordered before the other even item
+        evenRecorder.assertEvents("inserted 0 1");
+        sortedRecorder.assertEvents("moved 0 2", "changed 2 1 key");
+    }
+
+    @Test
+    public void suspendedProjectionCatchesUpWhenResumed() {
+        show(1, 2);
+        store.suspend(even);
+        store.add(new Item(4));
+        store.remove(new Filter<Item>() {
+            @Override
+            public boolean accept(Item item) {
+                return item.key == 2;
+            }
+        });
+        evenRecorder.assertEvents();
+        assertEquals(0, even.projection.keyedSize() + even.projection.projectedSize());
+        sortedRecorder.assertEvents("inserted 2 1", "removed 1 1");
+
+        store.resume(even);
+        evenRecorder.assertEvents("reset");
+        assertEquals("[4]", even.projection.get().toString());
+    }
+
+    @Test
+    public void batchIsCommittedPerProjection() {
+        show(1);
+        store.beginBatch();
+        store.add(new Item(0));
+        store.add(new Item(2));
+        evenRecorder.assertEvents();
+        store.commit();
+        evenRecorder.assertEvents("inserted 0 2");
+        sortedRecorder.assertEvents("inserted 0 1", "inserted 2 1");
+    }
+
+    @Test
+    public void projectionResumedDuringBatchJoinsIt() {
+        show(1);
+        store.suspend(even);
+        store.beginBatch();
+        store.resume(even);
+        even.projection.get();
+        evenRecorder.events.clear();
+        store.add(new Item(2));
+        evenRecorder.assertEvents();
+        store.commit();
+        evenRecorder.assertEvents("inserted 0 1");
+    }
+
+    @Test
+    public void detachedProjectionHasItsOwnDataset() {
+        show(1, 2);
+        store.detach(even);
+        evenRecorder.assertEvents("reset");
+        assertTrue(even.projection.get().isEmpty());
+        store.add(new Item(4));
+        evenRecorder.assertEvents();
+        assertEquals(3, store.size());
+    }
+}
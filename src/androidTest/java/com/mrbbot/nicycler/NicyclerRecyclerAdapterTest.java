@@ -0,0 +1,80 @@
+package com.mrbbot.nicycler;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how the adapter binds items and placeholders to recycled views
+ */
+@RunWith(AndroidJUnit4.class)
+public class NicyclerRecyclerAdapterTest {
+    /**
+     * Listener that isn't a {@code NicyclerAdapter}, so can't bind placeholders
+     */
+    private static final NicyclerListener<String, TextView> LISTENER = new NicyclerListener<String, TextView>() {
+        @Override
+        public TextView onCreate(ViewGroup parent) {
+            return new TextView(parent.getContext());
+        }
+
+        @Override
+        public void onBind(TextView view, String data) {
+            view.setText(data);
+        }
+    };
+
+    private static final NicyclerDataSource<String> SOURCE = new NicyclerDataSource<String>() {
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public List<String> load(int offset, int count) {
+            return Collections.singletonList("loaded");
+        }
+    };
+
+    private NicyclerRecyclerAdapter<String, TextView> adapter;
+    private NicyclerRecyclerAdapter<String, TextView>.VH holder;
+
+    @Before
+    public void setUp() {
+        adapter = new NicyclerRecyclerAdapter<>(LISTENER, null);
+        adapter.projection.set(Collections.singletonList("item"));
+        holder = adapter.onCreateViewHolder(new FrameLayout(InstrumentationRegistry.getTargetContext()), NicyclerRecyclerAdapter.TYPE_ITEM);
+    }
+
+    @Test
+    @UiThreadTest
+    public void placeholderHidesItemLastBoundByListener() {
+        adapter.onBindViewHolder(holder, 0);
+        assertEquals("item", ((TextView) holder.itemView).getText().toString());
+        assertEquals(View.VISIBLE, holder.itemView.getVisibility());
+
+        // The page isn't loaded yet, so the view is bound as a placeholder
+        adapter.pager = new NicyclerPager<>(SOURCE, adapter);
+        adapter.onBindViewHolder(holder, 0);
+        assertNull(holder.d);
+        assertEquals(View.INVISIBLE, holder.itemView.getVisibility());
+
+        adapter.pager = null;
+        adapter.onBindViewHolder(holder, 0);
+        assertEquals("item", holder.d);
+        assertEquals(View.VISIBLE, holder.itemView.getVisibility());
+    }
+}
@@ -0,0 +1,25 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for comparing items when working out what changed between two versions of the
+ * dataset
+ * @param <D> type of values to compare
+ */
+public interface Diff<D> {
+    /**
+     * Function for checking whether two values represent the same item
+     * @param a old value
+     * @param b new value
+     * @return whether the values represent the same item
+     */
+    boolean areItemsTheSame(D a, D b);
+
+    /**
+     * Function for checking whether two values representing the same item would be displayed the
+     * same way
+     * @param a old value
+     * @param b new value
+     * @return whether the values have the same contents
+     */
+    boolean areContentsTheSame(D a, D b);
+}
@@ -0,0 +1,15 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Interface for getting stable IDs for items, so views can stay attached to their items when the
+ * dataset changes
+ * @param <D> type of values to identify
+ */
+public interface ItemId<D> {
+    /**
+     * Function for getting an item's ID
+     * @param d item to identify
+     * @return ID that is unique to the item and doesn't change
+     */
+    long getItemId(D d);
+}
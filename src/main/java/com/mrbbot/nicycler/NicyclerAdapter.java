@@ -2,6 +2,8 @@ package com.mrbbot.nicycler;
 
 import android.view.View;
 
+import java.util.List;
+
 /**
  * Adapter for the {@code NicyclerListener} interface
  * @param <D> data type of the nicycler
@@ -15,4 +17,23 @@ public abstract class NicyclerAdapter<D, V extends View> implements NicyclerList
      */
     @Override
     public void onBind(V view, D data) { }
+
+    /**
+     * Method for binding data to the nicycler when only part of it may have changed. This is only
+     * called for listeners extending this class. By default, the whole view is bound.
+     * @param view view to bind to
+     * @param data data to be bound to the view
+     * @param payloads descriptions of what changed passed to {@code update}, or an empty list if
+     * the whole view should be bound
+     */
+    public void onBind(V view, D data, List<Object> payloads) {
+        onBind(view, data);
+    }
+
+    /**
+     * Method for binding a placeholder to the nicycler while an item is loading from a
+     * {@code NicyclerDataSource}. This is only called for listeners extending this class.
+     * @param view view to bind to
+     */
+    public void onBindPlaceholder(V view) { }
 }
@@ -0,0 +1,92 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Sizes of the caches a nicycler keeps, for checking how much it's holding on to and what's
+ * dropped when memory is trimmed. Every size is a count of items or objects rather than bytes.
+ */
+public class NicyclerCacheSizes {
+    private final int projected, history, buffers, keyed, indexed, trigrams, prepared, icons, pooled;
+
+    NicyclerCacheSizes(int projected, int history, int buffers, int keyed, int indexed, int trigrams, int prepared, int icons, int pooled) {
+        this.projected = projected;
+        this.history = history;
+        this.buffers = buffers;
+        this.keyed = keyed;
+        this.indexed = indexed;
+        this.trigrams = trigrams;
+        this.prepared = prepared;
+        this.icons = icons;
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return number of items in the filtered and sorted dataset, or 0 if it's been released
+     */
+    public int getProjected() {
+        return projected;
+    }
+
+    /**
+     * @return number of items in earlier projections kept for widening a narrowing filter
+     */
+    public int getHistory() {
+        return history;
+    }
+
+    /**
+     * @return number of items the sorting buffers can hold
+     */
+    public int getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return number of items with cached sort keys
+     */
+    public int getKeyed() {
+        return keyed;
+    }
+
+    /**
+     * @return number of items in the text index
+     */
+    public int getIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @return number of distinct trigrams in the text index
+     */
+    public int getTrigrams() {
+        return trigrams;
+    }
+
+    /**
+     * @return number of models prepared ahead of binding
+     */
+    public int getPrepared() {
+        return prepared;
+    }
+
+    /**
+     * @return number of swipe icons loaded
+     */
+    public int getIcons() {
+        return icons;
+    }
+
+    /**
+     * @return number of item and header views in the recycled view pool
+     */
+    public int getPooled() {
+        return pooled;
+    }
+
+    @Override
+    public String toString() {
+        return "NicyclerCacheSizes{projected=" + projected + ", history=" + history +
+                ", buffers=" + buffers + ", keyed=" + keyed + ", indexed=" + indexed +
+                ", trigrams=" + trigrams + ", prepared=" + prepared + ", icons=" + icons +
+                ", pooled=" + pooled + "}";
+    }
+}
@@ -0,0 +1,27 @@
+package com.mrbbot.nicycler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface for writing items to and reading them from a binary snapshot
+ * @param <D> type of values to encode
+ */
+public interface NicyclerCodec<D> {
+    /**
+     * Method for writing an item
+     * @param out output to write to
+     * @param d item to write
+     * @throws IOException if the item couldn't be written
+     */
+    void write(DataOutput out, D d) throws IOException;
+
+    /**
+     * Function for reading an item written by {@code write}
+     * @param in input to read from
+     * @return item that was read
+     * @throws IOException if the item couldn't be read
+     */
+    D read(DataInput in) throws IOException;
+}
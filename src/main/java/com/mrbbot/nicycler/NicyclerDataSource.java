@@ -0,0 +1,65 @@
+package com.mrbbot.nicycler;
+
+import android.support.annotation.Nullable;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class for loading a nicycler's items in pages rather than holding them all in memory. All
+ * methods are called on a background thread, one at a time.
+ * @param <D> data type of the nicycler
+ */
+public abstract class NicyclerDataSource<D> {
+    final int pageSize;
+    final int maxPages;
+    final int prefetchPages;
+
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerDataSource() {
+        this(50, 10, 2);
+    }
+
+    /**
+     * @param pageSize number of items to load at once
+     * @param maxPages maximum number of pages to keep in memory
+     * @param prefetchPages number of pages to load ahead of the scroll direction
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerDataSource(int pageSize, int maxPages, int prefetchPages) {
+        if(pageSize <= 0) throw new IllegalArgumentException("Page size must be positive");
+        if(maxPages <= prefetchPages) throw new IllegalArgumentException("Must be able to keep more pages than are prefetched");
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.prefetchPages = prefetchPages;
+    }
+
+    /**
+     * Counts the items matching the current filter
+     * @return number of items
+     */
+    public abstract int count();
+
+    /**
+     * Loads a page of items matching the current filter in the current sort order. If this throws,
+     * the page keeps its placeholders and is loaded again when one of them is next bound.
+     * @param offset position of the first item to load
+     * @param count maximum number of items to load
+     * @return loaded items
+     */
+    public abstract List<D> load(int offset, int count);
+
+    /**
+     * Called when the nicycler is filtered, so the source can filter its items, for example by
+     * adding a condition to its query
+     * @param filter filter to match against
+     */
+    public void onFilter(@Nullable Filter<D> filter) { }
+
+    /**
+     * Called when the nicycler is sorted, so the source can sort its items, for example by adding
+     * an order to its query
+     * @param sorter comparator to compare items
+     */
+    public void onSort(@Nullable Comparator<D> sorter) { }
+}
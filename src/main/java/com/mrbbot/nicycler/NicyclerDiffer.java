@@ -0,0 +1,214 @@
+package com.mrbbot.nicycler;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Computes new projections on a background thread and applies the differences to the current one
+ * on the main thread. Submitting new work cancels anything still in progress. If the items are
+ * grouped, the headers are diffed along with the items.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerDiffer<D> {
+    private final NicyclerRecyclerAdapter<D, ?> adapter;
+    private final NicyclerProjection<D> projection;
+    private final Diff<D> diff;
+
+    private Filter<D> filter;
+    private Comparator<D> sorter;
+
+    private Future<?> pending;
+    private int generation;
+    private boolean deferred;
+
+    NicyclerDiffer(NicyclerRecyclerAdapter<D, ?> adapter, Diff<D> diff) {
+        this.adapter = adapter;
+        this.projection = adapter.projection;
+        this.diff = diff;
+    }
+
+    /**
+     * Starts filtering the dataset in the background
+     * @param filter filter to match against
+     */
+    void filter(Filter<D> filter) {
+        prepare();
+        this.filter = filter;
+        submit();
+    }
+
+    /**
+     * Starts sorting the dataset in the background
+     * @param sorter comparator to compare items
+     */
+    void sort(Comparator<D> sorter) {
+        prepare();
+        this.sorter = sorter;
+        submit();
+    }
+
+    /**
+     * Replaces the dataset and starts projecting it in the background. The current projection
+     * remains displayed until the new one is ready.
+     * @param items items to set
+     */
+    void set(Collection<D> items) {
+        prepare();
+        projection.load(items);
+        submit();
+    }
+
+    /**
+     * Resubmits work that finished while a batch was in progress
+     */
+    void resume() {
+        if(!deferred) return;
+        deferred = false;
+        submit();
+    }
+
+    /**
+     * Cancels any work in progress
+     */
+    void cancel() {
+        generation++;
+        deferred = false;
+        if(pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /**
+     * Starts from the projection's filter and sorter unless there's already work pending, in which
+     * case we build on its filter and sorter instead
+     */
+    private void prepare() {
+        if(pending == null) {
+            filter = projection.filter;
+            sorter = projection.sorter;
+        }
+    }
+
+    private void submit() {
+        cancel();
+        final int generation = this.generation;
+        final int modCount = projection.modCount;
+        final Filter<D> filter = this.filter;
+        final Comparator<D> sorter = this.sorter;
+        final int parallelThreshold = projection.parallelThreshold;
+        final NicyclerMetrics metrics = projection.metrics;
+        final NicyclerGroups<D> groups = adapter.groups;
+        final GroupKey<D, ?> key = groups == null ? null : groups.key();
+        // The index can't be read while the main thread changes it, so look up the matches now
+        final Filter<D> matcher = filter instanceof NicyclerIndex.Query
+                ? ((NicyclerIndex.Query<D>) filter).snapshot()
+                : filter;
+        final List<D> dataset = new ArrayList<>(projection.dataset);
+        final Set<D> hidden = projection.hidden();
+        final int limit = projection.limit();
+        final List<?> current = key == null
+                ? new ArrayList<>(projection.get())
+                : NicyclerGroups.flatten(projection.get(), key);
+
+        pending = NicyclerThreads.BACKGROUND.submit(new Runnable() {
+            @Override
+            public void run() {
+                // A limited projection only sorts the items it keeps, once the rest are filtered out
+                final ArrayList<D> projected = NicyclerProjection.project(dataset, matcher, limit == 0 ? sorter : null, parallelThreshold, metrics);
+                if(hidden != null) {
+                    int kept = 0;
+                    for(int i = 0; i < projected.size(); i++) {
+                        D d = projected.get(i);
+                        if(!hidden.contains(d)) projected.set(kept++, d);
+                    }
+                    projected.subList(kept, projected.size()).clear();
+                }
+                if(limit > 0) NicyclerSelection.select(projected, limit, sorter);
+                if(Thread.currentThread().isInterrupted()) return;
+                final List<?> displayed = key == null ? projected : NicyclerGroups.flatten(projected, key);
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return current.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return displayed.size();
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        Object a = current.get(oldPosition);
+                        Object b = displayed.get(newPosition);
+                        if(a instanceof NicyclerGroups.Header || b instanceof NicyclerGroups.Header) return a.equals(b);
+                        return diff.areItemsTheSame((D) a, (D) b);
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        Object a = current.get(oldPosition);
+                        Object b = displayed.get(newPosition);
+                        if(a instanceof NicyclerGroups.Header) return true;
+                        return diff.areContentsTheSame((D) a, (D) b);
+                    }
+                });
+                if(Thread.currentThread().isInterrupted()) return;
+
+                NicyclerThreads.MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != NicyclerDiffer.this.generation) return;
+                        pending = null;
+                        if(projection.batching()) {
+                            // The projection can't be replaced until the batch is committed
+                            deferred = true;
+                            return;
+                        }
+                        if(modCount != projection.modCount || groups != adapter.groups) {
+                            // The projection changed while we were working, so our diff no longer
+                            // applies to it
+                            submit();
+                            return;
+                        }
+                        projection.replace(filter, sorter, projected);
+                        if(groups != null) groups.rebuild();
+                        // The diff already includes any headers, so it skips past the groups
+                        final NicyclerProjection.Observer observer = adapter.display;
+                        result.dispatchUpdatesTo(new ListUpdateCallback() {
+                            @Override
+                            public void onInserted(int position, int count) {
+                                observer.onInserted(position, count);
+                            }
+
+                            @Override
+                            public void onRemoved(int position, int count) {
+                                observer.onRemoved(position, count);
+                            }
+
+                            @Override
+                            public void onMoved(int fromPosition, int toPosition) {
+                                observer.onMoved(fromPosition, toPosition);
+                            }
+
+                            @Override
+                            public void onChanged(int position, int count, Object payload) {
+                                observer.onChanged(position, count, payload);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,176 @@
+package com.mrbbot.nicycler;
+
+/**
+ * Collects a nicycler's measurements into counters and histograms. Measurements may be recorded
+ * from a background thread, so reads return copies.
+ */
+public class NicyclerMetricsRecorder implements NicyclerMetrics {
+    private Histogram filter = new Histogram();
+    private Histogram sort = new Histogram();
+    private Histogram create = new Histogram();
+    private Histogram bind = new Histogram();
+    private Histogram swipeDraw = new Histogram();
+    private long fullNotifications;
+    private long granularNotifications;
+
+    /**
+     * Distribution of durations in buckets that double in size, so recording never allocates
+     */
+    public static class Histogram {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long total;
+        private long max;
+
+        private void record(long nanos) {
+            if(nanos < 0) nanos = 0;
+            buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+            count++;
+            total += nanos;
+            if(nanos > max) max = nanos;
+        }
+
+        private Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+            copy.count = count;
+            copy.total = total;
+            copy.max = max;
+            return copy;
+        }
+
+        /**
+         * @return number of recorded durations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of all recorded durations in nanoseconds
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return longest recorded duration in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return mean recorded duration in nanoseconds, or 0 if nothing has been recorded
+         */
+        public long getMean() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * Estimates a percentile, accurate to within a factor of 2
+         * @param percentile percentile between 0 and 100
+         * @return upper bound of the bucket containing the percentile in nanoseconds
+         */
+        public long getPercentile(double percentile) {
+            if(count == 0) return 0;
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for(int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if(seen >= rank && buckets[i] > 0) return Math.min(max, (1L << (i + 1)) - 1);
+            }
+            return max;
+        }
+    }
+
+    @Override
+    public synchronized void onProject(int items, int projected, long filterNanos, long sortNanos) {
+        filter.record(filterNanos);
+        sort.record(sortNanos);
+    }
+
+    @Override
+    public synchronized void onNotify(boolean full) {
+        if(full) fullNotifications++;
+        else granularNotifications++;
+    }
+
+    @Override
+    public synchronized void onCreate(long nanos) {
+        create.record(nanos);
+    }
+
+    @Override
+    public synchronized void onBind(long nanos) {
+        bind.record(nanos);
+    }
+
+    @Override
+    public synchronized void onSwipeDraw(long nanos) {
+        swipeDraw.record(nanos);
+    }
+
+    /**
+     * @return time spent filtering each time the dataset was rebuilt, the count of which is the
+     * number of rebuilds
+     */
+    public synchronized Histogram getFilter() {
+        return filter.copy();
+    }
+
+    /**
+     * @return time spent sorting each time the dataset was rebuilt
+     */
+    public synchronized Histogram getSort() {
+        return sort.copy();
+    }
+
+    /**
+     * @return time spent creating views
+     */
+    public synchronized Histogram getCreate() {
+        return create.copy();
+    }
+
+    /**
+     * @return time spent binding items
+     */
+    public synchronized Histogram getBind() {
+        return bind.copy();
+    }
+
+    /**
+     * @return time spent drawing swipe backgrounds
+     */
+    public synchronized Histogram getSwipeDraw() {
+        return swipeDraw.copy();
+    }
+
+    /**
+     * @return number of times everything was refreshed
+     */
+    public synchronized long getFullNotifications() {
+        return fullNotifications;
+    }
+
+    /**
+     * @return number of times a range of items was inserted, removed, moved or changed
+     */
+    public synchronized long getGranularNotifications() {
+        return granularNotifications;
+    }
+
+    /**
+     * Discards everything recorded so far
+     */
+    public synchronized void reset() {
+        filter = new Histogram();
+        sort = new Histogram();
+        create = new Histogram();
+        bind = new Histogram();
+        swipeDraw = new Histogram();
+        fullNotifications = 0;
+        granularNotifications = 0;
+    }
+}
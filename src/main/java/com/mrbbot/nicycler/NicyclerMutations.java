@@ -0,0 +1,157 @@
+package com.mrbbot.nicycler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Queues changes to the dataset made from other threads and applies them on the main thread once
+ * a frame. Queued changes are coalesced, then applied in a single batch so nothing is bound while
+ * only some of them have been made.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerMutations<D> extends NicyclerTicker {
+    private static final int SET = 0;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int UPDATE = 3;
+
+    /**
+     * Applies changes on the main thread
+     */
+    interface Target<D> {
+        void set(List<D> items);
+
+        void add(List<D> items);
+
+        void remove(Filter<D> filter);
+
+        void update(Filter<D> filter, Object payload);
+
+        void beginBatch();
+
+        void commit();
+    }
+
+    private static final class Mutation<D> {
+        final int type;
+        final ArrayList<D> items;
+        final Filter<D> filter;
+        final Object payload;
+
+        Mutation(int type, ArrayList<D> items, Filter<D> filter, Object payload) {
+            this.type = type;
+            this.items = items;
+            this.filter = filter;
+            this.payload = payload;
+        }
+    }
+
+    private final Target<D> target;
+    private final ConcurrentLinkedQueue<Mutation<D>> queue = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Mutation<D>> pending = new ArrayList<>();
+    private boolean applying;
+
+    NicyclerMutations(Target<D> target) {
+        this.target = target;
+    }
+
+    /**
+     * Queues replacing the dataset
+     * @param items items to set
+     */
+    void set(List<D> items) {
+        enqueue(new Mutation<>(SET, new ArrayList<>(items), null, null));
+    }
+
+    /**
+     * Queues adding items
+     * @param items items to add
+     */
+    void add(List<D> items) {
+        enqueue(new Mutation<>(ADD, new ArrayList<>(items), null, null));
+    }
+
+    /**
+     * Queues removing items matching a filter, which is run when the removal is applied
+     * @param filter filter to match against
+     */
+    void remove(Filter<D> filter) {
+        enqueue(new Mutation<>(REMOVE, null, filter, null));
+    }
+
+    /**
+     * Queues updating items, with the filter run when the update is applied
+     * @param filter filter that items are sent to where they may be updated
+     * @param payload description of the change
+     */
+    void update(Filter<D> filter, Object payload) {
+        enqueue(new Mutation<>(UPDATE, null, filter, payload));
+    }
+
+    private void enqueue(Mutation<D> mutation) {
+        queue.offer(mutation);
+        schedule();
+    }
+
+    /**
+     * Drops any queued changes that haven't been applied yet
+     */
+    void clear() {
+        // Unscheduled first, so a change queued in between is still scheduled, then dropped
+        cancel();
+        queue.clear();
+    }
+
+    /**
+     * Applies queued changes now, so a change made on the main thread comes after them. Does
+     * nothing while they're already being applied, as the target calls back into the nicycler.
+     */
+    void flush() {
+        if(!applying && !queue.isEmpty()) onFrame();
+    }
+
+    @Override
+    void onFrame() {
+        Mutation<D> mutation;
+        while((mutation = queue.poll()) != null) {
+            // Setting the dataset replaces anything done to it before
+            if(mutation.type == SET) pending.clear();
+            Mutation<D> last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if(last != null && last.type == ADD && mutation.type == ADD) {
+                // Queued lists are our own copies, so they can be merged into
+                last.items.addAll(mutation.items);
+                continue;
+            }
+            pending.add(mutation);
+        }
+        if(pending.isEmpty()) return;
+
+        // A single change is applied incrementally, anything more is worked out all at once
+        boolean batch = pending.size() > 1;
+        if(batch) target.beginBatch();
+        applying = true;
+        try {
+            for(Mutation<D> m : pending) {
+                switch(m.type) {
+                    case SET:
+                        target.set(m.items);
+                        break;
+                    case ADD:
+                        target.add(m.items);
+                        break;
+                    case REMOVE:
+                        target.remove(m.filter);
+                        break;
+                    case UPDATE:
+                        target.update(m.filter, m.payload);
+                        break;
+                }
+            }
+        } finally {
+            applying = false;
+            pending.clear();
+            if(batch) target.commit();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.mrbbot.nicycler;
+
+import android.util.Log;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads pages of items from a {@code NicyclerDataSource} on a background thread, keeping the most
+ * recently used ones in memory
+ * @param <D> data type of the nicycler
+ */
+class NicyclerPager<D> {
+    private final NicyclerDataSource<D> source;
+    private final NicyclerProjection.Observer observer;
+
+    private final LinkedHashMap<Integer, List<D>> pages;
+    private final Set<Integer> loading;
+    private volatile int generation;
+    private int count;
+    private int lastPosition;
+
+    NicyclerPager(NicyclerDataSource<D> source, NicyclerProjection.Observer observer) {
+        this.source = source;
+        this.observer = observer;
+        final int maxPages = source.maxPages;
+        this.pages = new LinkedHashMap<Integer, List<D>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<D>> eldest) {
+                return size() > maxPages;
+            }
+        };
+        this.loading = new HashSet<>();
+    }
+
+    /**
+     * Gets the number of items last counted by the source
+     * @return number of items
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Gets an item, loading its page (and the ones after it in the scroll direction) if required
+     * @param position position of the item
+     * @return the item, or {@code null} if its page is still loading
+     */
+    D get(int position) {
+        int page = position / source.pageSize;
+        int direction = position < lastPosition ? -1 : 1;
+        lastPosition = position;
+
+        List<D> items = pages.get(page);
+        if(items == null) load(page);
+        for(int i = 1; i <= source.prefetchPages; i++) {
+            int ahead = page + direction * i;
+            if(ahead >= 0 && ahead * source.pageSize < count && !pages.containsKey(ahead)) load(ahead);
+        }
+
+        int index = position - page * source.pageSize;
+        return items == null || index >= items.size() ? null : items.get(index);
+    }
+
+    /**
+     * Gets an item if its page is loaded, without loading anything
+     * @param position position of the item
+     * @return the item, or {@code null} if its page isn't loaded
+     */
+    D peek(int position) {
+        List<D> items = pages.get(position / source.pageSize);
+        int index = position % source.pageSize;
+        return items == null || index >= items.size() ? null : items.get(index);
+    }
+
+    /**
+     * Notifies the observer that an item in a loaded page has changed
+     * @param d item that changed
+     * @param payload description of the change, or {@code null} to rebind the whole item
+     */
+    void update(D d, Object payload) {
+        for(Map.Entry<Integer, List<D>> page : pages.entrySet()) {
+            List<D> items = page.getValue();
+            for(int i = 0; i < items.size(); i++) {
+                if(items.get(i) == d) {
+                    observer.onChanged(page.getKey() * source.pageSize + i, 1, payload);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes a new filter to the source and reloads everything
+     * @param filter filter to match against
+     */
+    void filter(final Filter<D> filter) {
+        refresh(new Runnable() {
+            @Override
+            public void run() {
+                source.onFilter(filter);
+            }
+        });
+    }
+
+    /**
+     * Passes a new sorter to the source and reloads everything
+     * @param sorter comparator to compare items
+     */
+    void sort(final Comparator<D> sorter) {
+        refresh(new Runnable() {
+            @Override
+            public void run() {
+                source.onSort(sorter);
+            }
+        });
+    }
+
+    /**
+     * Discards all loaded pages and recounts the source's items
+     * @param before work to do on the background thread before counting, or {@code null}
+     */
+    void refresh(final Runnable before) {
+        final int generation = ++this.generation;
+        pages.clear();
+        loading.clear();
+        NicyclerThreads.BACKGROUND.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(before != null) before.run();
+                final int count = source.count();
+                NicyclerThreads.MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != NicyclerPager.this.generation) return;
+                        NicyclerPager.this.count = count;
+                        observer.onReset();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops any pending loads from being applied
+     */
+    void cancel() {
+        generation++;
+    }
+
+    private void load(final int page) {
+        if(!loading.add(page)) return;
+        final int generation = this.generation;
+        NicyclerThreads.BACKGROUND.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip pages that were requested before a refresh
+                if(generation != NicyclerPager.this.generation) return;
+                final List<D> items;
+                try {
+                    items = source.load(page * source.pageSize, source.pageSize);
+                } catch(RuntimeException e) {
+                    Log.e("NICYCLER", "Couldn't load page " + page, e);
+                    // The page is loaded again the next time one of its placeholders is bound
+                    NicyclerThreads.MAIN.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(generation == NicyclerPager.this.generation) loading.remove(page);
+                        }
+                    });
+                    return;
+                }
+                NicyclerThreads.MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != NicyclerPager.this.generation) return;
+                        loading.remove(page);
+                        pages.put(page, items);
+                        int start = page * source.pageSize;
+                        int changed = Math.min(items.size(), count - start);
+                        if(changed > 0) observer.onChanged(start, changed, null);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package com.mrbbot.nicycler;
+
+import android.view.View;
+
+import java.util.List;
+
+/**
+ * Adapter that splits binding into two stages: preparing a bind-ready model from an item on a
+ * background thread, then binding that model to a view on the main thread. Models are prepared
+ * for items just ahead of the scroll direction and kept in a bounded cache, so expensive work like
+ * formatting dates or building spans doesn't happen while scrolling.
+ * @param <D> data type of the nicycler
+ * @param <V> view type of the nicycler
+ * @param <P> type of the prepared model
+ */
+public abstract class NicyclerPrepareAdapter<D, V extends View, P> extends NicyclerAdapter<D, V> {
+    final int cacheSize;
+    final int prepareAhead;
+
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerPrepareAdapter() {
+        this(100, 10);
+    }
+
+    /**
+     * @param cacheSize maximum number of prepared models to keep
+     * @param prepareAhead number of items to prepare ahead of the scroll direction
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerPrepareAdapter(int cacheSize, int prepareAhead) {
+        if(cacheSize <= prepareAhead) throw new IllegalArgumentException("Must be able to keep more models than are prepared ahead");
+        this.cacheSize = cacheSize;
+        this.prepareAhead = prepareAhead;
+    }
+
+    /**
+     * Prepares a model for binding an item. This is usually called on a background thread, but may
+     * be called on the main thread if an item is bound before its model is ready, so it must not
+     * modify the item or touch any views.
+     * @param data item to prepare
+     * @return model passed to {@code onBind}
+     */
+    public abstract P onPrepare(D data);
+
+    /**
+     * Method for binding a prepared model to the nicycler
+     * @param view view to bind to
+     * @param data data to be bound to the view
+     * @param prepared model returned by {@code onPrepare} for the data
+     */
+    public abstract void onBind(V view, D data, P prepared);
+
+    /**
+     * Method for binding a prepared model to the nicycler when only part of it may have changed.
+     * By default, the whole view is bound.
+     * @param view view to bind to
+     * @param data data to be bound to the view
+     * @param prepared model returned by {@code onPrepare} for the data
+     * @param payloads descriptions of what changed passed to {@code update}, or an empty list if
+     * the whole view should be bound
+     */
+    public void onBind(V view, D data, P prepared, List<Object> payloads) {
+        onBind(view, data, prepared);
+    }
+}
@@ -0,0 +1,171 @@
+package com.mrbbot.nicycler;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Prepares models for a {@code NicyclerPrepareAdapter} on a background thread and keeps the most
+ * recently used ones. Items are matched by identity, as they may be modified in place by
+ * {@code update}. Everything other than {@code onPrepare} happens on the main thread.
+ * @param <D> data type of the nicycler
+ * @param <P> type of the prepared model
+ */
+class NicyclerPreparer<D, P> {
+    private final NicyclerPrepareAdapter<D, ?, P> listener;
+    private final IdentityHashMap<D, Node<D, P>> cache;
+    /**
+     * Sentinel of the recency list, the node after it is the most recently used
+     */
+    private final Node<D, P> head;
+    /**
+     * Items being prepared on the background thread, mapped to a ticket identifying the request
+     * so results for items invalidated in the meantime are discarded
+     */
+    private final IdentityHashMap<D, Object> pending;
+    private volatile int generation;
+    private int lastPosition;
+
+    private static class Node<D, P> {
+        D d;
+        P prepared;
+        Node<D, P> previous, next;
+    }
+
+    NicyclerPreparer(NicyclerPrepareAdapter<D, ?, P> listener) {
+        this.listener = listener;
+        this.cache = new IdentityHashMap<>();
+        this.head = new Node<>();
+        head.previous = head.next = head;
+        this.pending = new IdentityHashMap<>();
+    }
+
+    /**
+     * Gets the prepared model of an item, preparing it now if it isn't ready yet
+     * @param d item to get the model of
+     * @return prepared model
+     */
+    P get(D d) {
+        Node<D, P> node = cache.get(d);
+        if(node != null) {
+            unlink(node);
+            link(node);
+            return node.prepared;
+        }
+        pending.remove(d);
+        P prepared = listener.onPrepare(d);
+        put(d, prepared);
+        return prepared;
+    }
+
+    /**
+     * Notes that an item has been bound and prepares the items ahead of it in the direction the
+     * list is scrolling
+     * @param position position of the bound item
+     * @param items items of the nicycler
+     */
+    void bound(int position, Items<D> items) {
+        int step = position >= lastPosition ? 1 : -1;
+        lastPosition = position;
+        int taskGeneration = ++generation;
+
+        int count = items.count();
+        for(int i = 1; i <= listener.prepareAhead; i++) {
+            int p = position + step * i;
+            if(p < 0 || p >= count) break;
+            D d = items.peek(p);
+            if(d != null && !cache.containsKey(d) && !pending.containsKey(d)) {
+                schedule(d, taskGeneration);
+            }
+        }
+    }
+
+    private void schedule(final D d, final int taskGeneration) {
+        final Object ticket = new Object();
+        pending.put(d, ticket);
+        NicyclerThreads.PREPARE.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip items queued so many binds ago they've probably been scrolled past
+                final boolean stale = generation - taskGeneration > listener.prepareAhead;
+                final P prepared = stale ? null : listener.onPrepare(d);
+                NicyclerThreads.MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(pending.get(d) != ticket) return;
+                        pending.remove(d);
+                        if(!stale) put(d, prepared);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Discards the prepared model of an item, so it's prepared again the next time it's bound
+     * @param d item that changed
+     */
+    void invalidate(D d) {
+        Node<D, P> node = cache.remove(d);
+        if(node != null) unlink(node);
+        pending.remove(d);
+    }
+
+    /**
+     * Discards all prepared models
+     */
+    void clear() {
+        cache.clear();
+        head.previous = head.next = head;
+        pending.clear();
+        generation++;
+    }
+
+    /**
+     * @return number of prepared models kept
+     */
+    int size() {
+        return cache.size();
+    }
+
+    private void put(D d, P prepared) {
+        Node<D, P> node = cache.get(d);
+        if(node == null) {
+            if(cache.size() >= listener.cacheSize) {
+                Node<D, P> eldest = head.previous;
+                unlink(eldest);
+                cache.remove(eldest.d);
+                // Reuse the evicted node rather than allocating another
+                node = eldest;
+            } else {
+                node = new Node<>();
+            }
+            node.d = d;
+            cache.put(d, node);
+        } else {
+            unlink(node);
+        }
+        node.prepared = prepared;
+        link(node);
+    }
+
+    private void link(Node<D, P> node) {
+        node.previous = head;
+        node.next = head.next;
+        head.next.previous = node;
+        head.next = node;
+    }
+
+    private void unlink(Node<D, P> node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+    }
+
+    /**
+     * Items that can be prepared ahead, without loading any that aren't available yet
+     * @param <D> data type of the nicycler
+     */
+    interface Items<D> {
+        int count();
+
+        D peek(int position);
+    }
+}
@@ -5,74 +5,265 @@ import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 
 /**
  * The actual {@code RecyclerView.Adapter} of the nicycler
  * @param <D> data type of the nicycler
  * @param <V> view type of the nicycler
  */
-class NicyclerRecyclerAdapter<D, V extends View> extends RecyclerView.Adapter<NicyclerRecyclerAdapter.VH> {
-    ArrayList<D> dataset;
-    private NicyclerListener<D, V> listener;
+class NicyclerRecyclerAdapter<D, V extends View> extends RecyclerView.Adapter<NicyclerRecyclerAdapter.VH> implements NicyclerProjection.Observer, NicyclerPreparer.Items<D> {
+    static final int TYPE_ITEM = 0;
+    static final int TYPE_HEADER = 1;
+
+    final NicyclerProjection<D> projection;
+    @Nullable
+    NicyclerPager<D> pager;
+    final NicyclerListener<D, V> listener;
+    @Nullable
+    private final ItemId<D> itemId;
+    @Nullable
+    private final NicyclerPreparer<D, Object> preparer;
     @Nullable
-    Filter<D> filter;
-    Comparator<D> sorter;
+    NicyclerMetrics metrics;
+    @Nullable
+    NicyclerGroups<D> groups;
+    @Nullable
+    private NicyclerListener<Object, View> headers;
+    int itemHeight = ViewGroup.LayoutParams.WRAP_CONTENT;
+
+    /**
+     * Notifies the {@code RecyclerView} of changes, with positions that include any headers
+     */
+    final NicyclerProjection.Observer display = new NicyclerProjection.Observer() {
+        @Override
+        public void onInserted(int position, int count) {
+            if(metrics != null) metrics.onNotify(false);
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if(metrics != null) metrics.onNotify(false);
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            if(metrics != null) metrics.onNotify(false);
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            if(metrics != null) metrics.onNotify(false);
+            notifyItemRangeChanged(position, count, payload);
+        }
+
+        @Override
+        public void onReset() {
+            if(metrics != null) metrics.onNotify(true);
+            notifyDataSetChanged();
+        }
+    };
 
-    NicyclerRecyclerAdapter(NicyclerListener<D, V> listener) {
-        this.dataset = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    NicyclerRecyclerAdapter(NicyclerListener<D, V> listener, @Nullable ItemId<D> itemId) {
+        this.projection = new NicyclerProjection<>(this);
         this.listener = listener;
+        this.itemId = itemId;
+        this.preparer = listener instanceof NicyclerPrepareAdapter
+                ? new NicyclerPreparer<>((NicyclerPrepareAdapter<D, V, Object>) listener)
+                : null;
+        setHasStableIds(itemId != null);
     }
 
     class VH extends RecyclerView.ViewHolder {
         D d;
-        VH(V itemView) {
+        /**
+         * Whether the view was hidden because it's a placeholder the listener can't bind
+         */
+        boolean blank;
+        VH(View itemView) {
             super(itemView);
         }
     }
 
-    private ArrayList<D> filteredSortedCache;
-    ArrayList<D> getFilteredSortedDataset() {
-        if(filteredSortedCache != null) return filteredSortedCache;
-        ArrayList<D> filteredSortedDataset = new ArrayList<>();
+    /**
+     * @return where the projection's changes should go, which is through the groups if there are any
+     */
+    private NicyclerProjection.Observer target() {
+        return groups != null ? groups : display;
+    }
 
-        if(filter == null) {
-            filteredSortedDataset.addAll(dataset);
-        } else {
-            for (D d : dataset) if (filter.accept(d)) filteredSortedDataset.add(d);
-        }
+    @Override
+    public void onInserted(int position, int count) {
+        target().onInserted(position, count);
+    }
 
-        if(sorter != null) {
-            Collections.sort(filteredSortedDataset, sorter);
-        }
+    @Override
+    public void onRemoved(int position, int count) {
+        target().onRemoved(position, count);
+    }
 
-        filteredSortedCache = filteredSortedDataset;
-        return filteredSortedDataset;
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        target().onMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        target().onChanged(position, count, payload);
     }
 
-    void invalidateFilteredSortedCache() {
-        filteredSortedCache = null;
+    @Override
+    public void onReset() {
+        target().onReset();
+    }
+
+    /**
+     * Groups the projection, or removes the groups, and refreshes everything
+     * @param key function getting the group of an item, or {@code null} to remove the groups
+     * @param headers listener creating and binding the headers
+     */
+    @SuppressWarnings("unchecked")
+    void group(@Nullable GroupKey<D, ?> key, @Nullable NicyclerListener<?, ? extends View> headers) {
+        this.groups = key == null ? null : new NicyclerGroups<>(projection, key, display);
+        this.headers = key == null ? null : (NicyclerListener<Object, View>) headers;
+        display.onReset();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return groups != null && groups.isHeader(position) ? TYPE_HEADER : TYPE_ITEM;
     }
 
     @Override
     public VH onCreateViewHolder(ViewGroup parent, int viewType) {
-        V v = listener.onCreate(parent);
-        v.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        long start = metrics == null ? 0 : System.nanoTime();
+        View v;
+        if(viewType == TYPE_HEADER && headers != null) {
+            v = headers.onCreate(parent);
+            v.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        } else {
+            v = listener.onCreate(parent);
+            v.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, itemHeight));
+        }
+        if(metrics != null) metrics.onCreate(System.nanoTime() - start);
         return new VH(v);
     }
 
+    @Override
+    public long getItemId(int position) {
+        if(itemId == null) return RecyclerView.NO_ID;
+        if(groups != null && groups.isHeader(position)) {
+            // Headers get ids with the top bit set so they're unlikely to clash with the items'
+            Object key = groups.header(position);
+            return Long.MIN_VALUE | (key == null ? 0 : key.hashCode() & 0xFFFFFFFFL);
+        }
+        D d = peek(position);
+        return d == null ? RecyclerView.NO_ID : itemId.getItemId(d);
+    }
+
     @Override
     public void onBindViewHolder(NicyclerRecyclerAdapter.VH holder, int position) {
-        ArrayList<D> filteredDataset = getFilteredSortedDataset();
-        holder.d = filteredDataset.get(position);
-        //noinspection unchecked
-        listener.onBind((V) holder.itemView, filteredDataset.get(position));
+        onBindViewHolder(holder, position, Collections.emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void onBindViewHolder(NicyclerRecyclerAdapter.VH holder, int position, List<Object> payloads) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if(groups != null && headers != null && groups.isHeader(position)) {
+            holder.d = null;
+            bind(headers, holder.itemView, groups.header(position), payloads);
+            if(metrics != null) metrics.onBind(System.nanoTime() - start);
+            return;
+        }
+        ViewGroup.LayoutParams params = holder.itemView.getLayoutParams();
+        if(params.height != itemHeight) {
+            // The item height was changed after this view was created
+            params.height = itemHeight;
+            holder.itemView.setLayoutParams(params);
+        }
+        D d = pager != null ? pager.get(position) : peek(position);
+        holder.d = d;
+        if(d == null) {
+            if(listener instanceof NicyclerAdapter) {
+                ((NicyclerAdapter<D, V>) listener).onBindPlaceholder((V) holder.itemView);
+            } else {
+                // Other listeners can't bind placeholders, so hide the item last bound to the view
+                holder.itemView.setVisibility(View.INVISIBLE);
+                holder.blank = true;
+            }
+        } else {
+            if(holder.blank) {
+                holder.itemView.setVisibility(View.VISIBLE);
+                holder.blank = false;
+            }
+            if(preparer != null) {
+                ((NicyclerPrepareAdapter<D, V, Object>) listener).onBind((V) holder.itemView, d, preparer.get(d), payloads);
+            } else {
+                bind(listener, (V) holder.itemView, d, payloads);
+            }
+        }
+        if(preparer != null) preparer.bound(position, this);
+        if(metrics != null) metrics.onBind(System.nanoTime() - start);
+    }
+
+    /**
+     * Binds an item with its payloads if the listener extends {@code NicyclerAdapter}, which is
+     * where the payload overload lives, otherwise binds the whole item
+     */
+    @SuppressWarnings("unchecked")
+    private static <D, V extends View> void bind(NicyclerListener<D, V> listener, V view, D data, List<Object> payloads) {
+        if(listener instanceof NicyclerAdapter) ((NicyclerAdapter<D, V>) listener).onBind(view, data, payloads);
+        else listener.onBind(view, data);
     }
 
     @Override
     public int getItemCount() {
-        return getFilteredSortedDataset().size();
+        if(pager != null) return pager.count();
+        if(groups != null) return groups.count();
+        return projection.get().size();
+    }
+
+    @Override
+    public int count() {
+        return getItemCount();
+    }
+
+    @Override
+    @Nullable
+    public D peek(int position) {
+        if(pager != null) return pager.peek(position);
+        if(groups != null) {
+            int item = groups.itemPosition(position);
+            return item == -1 ? null : projection.get().get(item);
+        }
+        return projection.get().get(position);
+    }
+
+    /**
+     * Discards anything prepared for an item because it's about to change
+     * @param d item that will change
+     */
+    void invalidate(D d) {
+        if(preparer != null) preparer.invalidate(d);
+    }
+
+    /**
+     * Discards anything prepared for the current items because they're about to be replaced
+     */
+    void invalidateAll() {
+        if(preparer != null) preparer.clear();
+    }
+
+    /**
+     * @return number of prepared models kept for items
+     */
+    int preparedCount() {
+        return preparer == null ? 0 : preparer.size();
     }
 }
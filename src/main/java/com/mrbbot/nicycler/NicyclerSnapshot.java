@@ -0,0 +1,110 @@
+package com.mrbbot.nicycler;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a snapshot of the dataset written with a {@code NicyclerCodec} on a background thread,
+ * passing the items back to the main thread in chunks as they're read
+ * @param <D> data type of the nicycler
+ */
+class NicyclerSnapshot<D> implements Runnable {
+    private static final int MAGIC = 0x4E494359;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = 512;
+
+    /**
+     * Receives chunks of restored items on the main thread
+     */
+    interface Receiver<D> {
+        void onRestored(List<D> items);
+    }
+
+    private final File file;
+    private final NicyclerCodec<D> codec;
+    private final Receiver<D> receiver;
+    private volatile boolean cancelled;
+
+    NicyclerSnapshot(File file, NicyclerCodec<D> codec, Receiver<D> receiver) {
+        this.file = file;
+        this.codec = codec;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Writes items to a snapshot file
+     * @param file file to write to
+     * @param items items to write
+     * @param codec codec to write items with
+     * @throws IOException if the snapshot couldn't be written
+     */
+    static <D> void write(File file, List<D> items, NicyclerCodec<D> codec) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(items.size());
+            for(D d : items) codec.write(out, d);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Starts reading the snapshot on the background thread
+     */
+    void start() {
+        NicyclerThreads.BACKGROUND.execute(this);
+    }
+
+    /**
+     * Stops reading the snapshot and drops any chunks that haven't been received yet
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a nicycler snapshot: " + file);
+                }
+                int remaining = in.readInt();
+                while(remaining > 0 && !cancelled) {
+                    int size = Math.min(remaining, CHUNK_SIZE);
+                    List<D> chunk = new ArrayList<>(size);
+                    for(int i = 0; i < size; i++) chunk.add(codec.read(in));
+                    remaining -= size;
+                    deliver(chunk);
+                }
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            Log.e("NICYCLER", "Couldn't restore snapshot", e);
+        }
+    }
+
+    private void deliver(final List<D> chunk) {
+        NicyclerThreads.MAIN.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!cancelled) receiver.onRestored(chunk);
+            }
+        });
+    }
+}
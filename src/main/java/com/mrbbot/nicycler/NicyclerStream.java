@@ -0,0 +1,132 @@
+package com.mrbbot.nicycler;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Pulls items from an iterator on a background thread and passes them to the main thread in
+ * chunks sized to fit a time budget each frame. Items are handed over through a bounded queue, so
+ * the iterator blocks rather than running ahead of the main thread.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerStream<D> implements Runnable {
+    private static final int CAPACITY = 4096;
+    private static final Object END = new Object();
+    private static final Object FAILED = new Object();
+
+    /**
+     * Receives chunks of streamed items on the main thread, then whether the iterator ran out of
+     * items rather than throwing
+     */
+    interface Receiver<D> {
+        void onStreamed(List<D> items);
+
+        void onFinished(NicyclerStream<D> stream, boolean complete);
+    }
+
+    private final Iterator<? extends D> items;
+    private final Receiver<D> receiver;
+    private final long budget;
+    private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final ArrayList<Object> drained = new ArrayList<>();
+    private final ArrayList<D> chunk = new ArrayList<>();
+    private final NicyclerTicker ticker = new NicyclerTicker() {
+        @Override
+        void onFrame() {
+            drain();
+        }
+    };
+
+    private Future<?> future;
+    private volatile boolean cancelled;
+    private long nanosPerItem = 10000;
+
+    /**
+     * @param items iterator to pull items from on the background thread
+     * @param budget nanoseconds to spend receiving items each frame
+     * @param receiver receives the items on the main thread
+     */
+    NicyclerStream(Iterator<? extends D> items, long budget, Receiver<D> receiver) {
+        this.items = items;
+        this.budget = budget;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Starts pulling items on the background thread
+     */
+    void start() {
+        future = NicyclerThreads.STREAM.submit(this);
+    }
+
+    /**
+     * Stops pulling items and drops any that haven't been received yet
+     */
+    void cancel() {
+        cancelled = true;
+        if(future != null) future.cancel(true);
+        queue.clear();
+        ticker.cancel();
+    }
+
+    @Override
+    public void run() {
+        Object end = END;
+        try {
+            while(!cancelled && items.hasNext()) offer(items.next());
+        } catch(InterruptedException e) {
+            return;
+        } catch(RuntimeException e) {
+            Log.e("NICYCLER", "Couldn't stream items", e);
+            end = FAILED;
+        }
+        try {
+            offer(end);
+        } catch(InterruptedException ignored) { }
+    }
+
+    /**
+     * Queues an item, blocking while the queue is full, and wakes up the main thread if it's not
+     * already going to drain the queue
+     */
+    private void offer(Object item) throws InterruptedException {
+        queue.put(item);
+        ticker.schedule();
+    }
+
+    /**
+     * Receives as many items as should fit in the budget, based on how long previous items took,
+     * and schedules another frame if there are more waiting
+     */
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        if(cancelled) return;
+        long start = System.nanoTime();
+        int max = (int) Math.max(1, Math.min(CAPACITY, budget / nanosPerItem));
+        queue.drainTo(drained, max);
+        Object end = null;
+        for(int i = 0; i < drained.size(); i++) {
+            Object item = drained.get(i);
+            if(item == END || item == FAILED) end = item;
+            else chunk.add((D) item);
+        }
+        drained.clear();
+        if(!chunk.isEmpty()) {
+            receiver.onStreamed(chunk);
+            long elapsed = System.nanoTime() - start;
+            nanosPerItem = Math.max(1, (nanosPerItem + elapsed / chunk.size()) / 2);
+            chunk.clear();
+        }
+        if(end != null) {
+            cancelled = true;
+            receiver.onFinished(this, end == END);
+        } else if(!queue.isEmpty()) {
+            ticker.schedule();
+        }
+    }
+}
@@ -3,19 +3,29 @@ package com.mrbbot.nicycler;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
+import android.support.annotation.ColorInt;
 import android.support.v4.content.ContextCompat;
-import android.util.SparseArray;
+import android.util.LruCache;
+
+import java.util.List;
 
 /**
  * Class containing information for how to handle swiping an item
  * @param <D> data type of the nicycler
  */
 public abstract class NicyclerSwipe<D> {
+    /**
+     * Number of icons kept loaded, so an icon per item can't hold on to every drawable it's used
+     */
+    private static final int ICON_CACHE_SIZE = 16;
+
     private int iconId;
     private String colour;
+    @ColorInt
+    private int colourInt;
     final boolean alwaysUpdate;
 
-    private SparseArray<Drawable> iconCache;
+    private final LruCache<Integer, Drawable> iconCache;
 
     @SuppressWarnings("WeakerAccess")
     public NicyclerSwipe() {
@@ -46,10 +56,34 @@ public abstract class NicyclerSwipe<D> {
      */
     @SuppressWarnings("WeakerAccess")
     public NicyclerSwipe(int iconId, String color, boolean alwaysUpdate) {
+        this(iconId, color, Color.parseColor(color), alwaysUpdate);
+    }
+
+    /**
+     * @param iconId resource id of the icon to be used
+     * @param color background color to be used
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerSwipe(int iconId, @ColorInt int color) {
+        this(iconId, color, true);
+    }
+
+    /**
+     * @param iconId resource id of the icon to be used
+     * @param color background color to be used
+     * @param alwaysUpdate whether the recycler view should always update the item when swiped
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NicyclerSwipe(int iconId, @ColorInt int color, boolean alwaysUpdate) {
+        this(iconId, String.format("#%08X", color), color, alwaysUpdate);
+    }
+
+    private NicyclerSwipe(int iconId, String color, int colourInt, boolean alwaysUpdate) {
         this.iconId = iconId;
         this.colour = color;
+        this.colourInt = colourInt;
         this.alwaysUpdate = alwaysUpdate;
-        this.iconCache = new SparseArray<>();
+        this.iconCache = new LruCache<>(ICON_CACHE_SIZE);
     }
 
     /**
@@ -62,10 +96,24 @@ public abstract class NicyclerSwipe<D> {
         Drawable cached = iconCache.get(id);
         if(cached != null) return cached;
         cached = ContextCompat.getDrawable(context, id);
-        iconCache.put(id, cached);
+        if(cached != null) iconCache.put(id, cached);
         return cached;
     }
 
+    /**
+     * Drops all loaded icons, so they're loaded again the next time they're drawn
+     */
+    void trimIcons() {
+        iconCache.evictAll();
+    }
+
+    /**
+     * @return number of icons currently loaded
+     */
+    int iconCount() {
+        return iconCache.size();
+    }
+
     /**
      * Gets the resource ID of the icon to use
      * @return resource ID of icon
@@ -75,11 +123,16 @@ public abstract class NicyclerSwipe<D> {
     }
 
     /**
-     * Parses the hex color
-     * @return integer form of the color
+     * Gets the colour to use as an integer. By default this parses {@link #getColour(Object)},
+     * unless it returns the colour passed to the constructor, which is only parsed once. Override
+     * this instead of {@code getColour} to avoid parsing dynamic colours altogether.
+     * @return integer form of the colour
      */
-    final int doGetColour(D d) {
-        return Color.parseColor(getColour(d));
+    @ColorInt
+    public int getColourInt(D d) {
+        String hex = getColour(d);
+        //noinspection StringEquality
+        return hex == colour ? colourInt : Color.parseColor(hex);
     }
 
     /**
@@ -103,4 +156,17 @@ public abstract class NicyclerSwipe<D> {
      * @param callback callback to be called when the item is to be updated
      */
     public abstract void swipe(D d, Callback callback);
+
+    /**
+     * Processes the swipes of several items at once, when swipes are batched with
+     * {@code setSwipeDelay}. Changes made to the dataset here are displayed together. By default
+     * nothing is done and {@code false} is returned, so each item is passed to
+     * {@link #swipe(Object, Callback)} in turn instead, with a callback updating only that item.
+     * @param items data of the swiped items, in the order they were swiped
+     * @param callback callback to be called when all of the items are to be updated
+     * @return whether the swipes were processed, or {@code false} to process them one at a time
+     */
+    public boolean swipeBatch(List<D> items, Callback callback) {
+        return false;
+    }
 }
@@ -10,21 +10,37 @@ import android.support.v7.widget.helper.ItemTouchHelper;
 import android.view.View;
 
 abstract class NicyclerSwipeCallback extends ItemTouchHelper.SimpleCallback {
+    /**
+     * Number of items per direction whose styles are kept, enough for an item being swiped while
+     * others are still animating back into place
+     */
+    private static final int STYLE_SLOTS = 4;
+
     private Context context;
     @Nullable
     private final NicyclerSwipe leftSwipe;
     @Nullable
     private final NicyclerSwipe rightSwipe;
 
-    private Drawable rightIcon, leftIcon;
-    private int rightWidth, rightHeight,
-            leftWidth, leftHeight;
-
-    private int rightColour;
-    private int leftColour;
+    private final Style[] leftStyles, rightStyles;
+    private int nextLeftStyle, nextRightStyle;
 
     private ColorDrawable background;
 
+    @Nullable
+    NicyclerMetrics metrics;
+
+    /**
+     * Colour and icon of a swipe, resolved once per item and direction so drawing a frame doesn't
+     * need to call back into the {@code NicyclerSwipe}
+     */
+    private static class Style {
+        Object d;
+        int colour;
+        Drawable icon;
+        int width, height;
+    }
+
     NicyclerSwipeCallback(Context context, @Nullable NicyclerSwipe leftSwipe, @Nullable NicyclerSwipe rightSwipe) {
         super(0, (leftSwipe != null ? ItemTouchHelper.LEFT : 0) +
                 (rightSwipe != null ? ItemTouchHelper.RIGHT : 0));
@@ -32,64 +48,129 @@ abstract class NicyclerSwipeCallback extends ItemTouchHelper.SimpleCallback {
         this.leftSwipe = leftSwipe;
         this.rightSwipe = rightSwipe;
 
+        leftStyles = newStyles();
+        rightStyles = newStyles();
+
         background = new ColorDrawable();
     }
 
+    private static Style[] newStyles() {
+        Style[] styles = new Style[STYLE_SLOTS];
+        for(int i = 0; i < STYLE_SLOTS; i++) styles[i] = new Style();
+        return styles;
+    }
+
     @Override
     public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target) {
         return false;
     }
 
+    /**
+     * Gets the style for swiping an item in a direction, resolving it into the next slot if it
+     * isn't already cached
+     */
     @SuppressWarnings("unchecked")
-    @Override
-    public void onChildDraw(Canvas c, RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, float dX, float dY, int actionState, boolean isCurrentlyActive) {
-        int direction = dX < 0 ? ItemTouchHelper.LEFT : ItemTouchHelper.RIGHT;
+    private Style style(int direction, Object d) {
+        boolean right = direction == ItemTouchHelper.RIGHT;
+        Style[] styles = right ? rightStyles : leftStyles;
+        for(Style style : styles) {
+            if(style.d == d) return style;
+        }
 
-        NicyclerRecyclerAdapter.VH vh = (NicyclerRecyclerAdapter.VH) viewHolder;
+        Style style;
+        if(right) {
+            style = styles[nextRightStyle];
+            nextRightStyle = (nextRightStyle + 1) % STYLE_SLOTS;
+        } else {
+            style = styles[nextLeftStyle];
+            nextLeftStyle = (nextLeftStyle + 1) % STYLE_SLOTS;
+        }
 
-        if(leftSwipe != null) {
-            this.leftIcon = leftSwipe.doGetIcon(context, vh.d);
-            this.leftWidth = this.leftIcon.getIntrinsicWidth();
-            this.leftHeight = this.leftIcon.getIntrinsicHeight();
+        NicyclerSwipe swipe = right ? rightSwipe : leftSwipe;
+        //noinspection ConstantConditions
+        style.icon = swipe.doGetIcon(context, d);
+        style.width = style.icon.getIntrinsicWidth();
+        style.height = style.icon.getIntrinsicHeight();
+        style.colour = swipe.getColourInt(d);
+        style.d = d;
+        return style;
+    }
 
-            this.leftColour = leftSwipe.doGetColour(vh.d);
+    /**
+     * Forgets the styles of an item, so they're resolved again the next time it's swiped
+     */
+    private static void forget(Style[] styles, Object d) {
+        for(Style style : styles) {
+            if(style.d == d) forget(style);
         }
+    }
 
-        if(rightSwipe != null) {
-            this.rightIcon = rightSwipe.doGetIcon(context, vh.d);
-            this.rightWidth = this.rightIcon.getIntrinsicWidth();
-            this.rightHeight = this.rightIcon.getIntrinsicHeight();
+    private static void forget(Style style) {
+        style.d = null;
+        style.icon = null;
+    }
 
-            this.rightColour = rightSwipe.doGetColour(vh.d);
-        }
+    /**
+     * Forgets every resolved style and drops the loaded icons of both swipes
+     */
+    void trim() {
+        for(Style style : leftStyles) forget(style);
+        for(Style style : rightStyles) forget(style);
+        if(leftSwipe != null) leftSwipe.trimIcons();
+        if(rightSwipe != null) rightSwipe.trimIcons();
+    }
+
+    /**
+     * @return number of icons loaded by both swipes
+     */
+    int iconCount() {
+        return (leftSwipe == null ? 0 : leftSwipe.iconCount()) +
+                (rightSwipe == null || rightSwipe == leftSwipe ? 0 : rightSwipe.iconCount());
+    }
 
-        View itemView = viewHolder.itemView;
-        int itemHeight = itemView.getBottom() - itemView.getTop();
-
-        background.setColor(direction == ItemTouchHelper.RIGHT ? rightColour : leftColour);
-        background.setBounds(
-                direction == ItemTouchHelper.RIGHT ? 0 : itemView.getRight() + (int) dX,
-                itemView.getTop(),
-                direction == ItemTouchHelper.RIGHT ? (int) dX : itemView.getRight(),
-                itemView.getBottom()
-        );
-        background.draw(c);
-
-        int intrinsicWidth = direction == ItemTouchHelper.RIGHT ? rightWidth : leftWidth;
-        int intrinsicHeight = direction == ItemTouchHelper.RIGHT ? rightHeight : leftHeight;
-
-        int iconTop = itemView.getTop() + (itemHeight - intrinsicHeight) / 2;
-        int iconMargin = (itemHeight - intrinsicHeight) / 2;
-        int iconLeft = direction == ItemTouchHelper.RIGHT ? iconMargin : itemView.getRight() - iconMargin - intrinsicWidth;
-        int iconRight = direction == ItemTouchHelper.RIGHT ? iconMargin + intrinsicWidth : itemView.getRight() - iconMargin;
-        int iconBottom = iconTop + intrinsicHeight;
-
-        if(Math.abs(dX) > iconMargin) {
-            Drawable icon = direction == ItemTouchHelper.RIGHT ? rightIcon : leftIcon;
-            icon.setBounds(iconLeft, iconTop, iconRight, iconBottom);
-            icon.draw(c);
+    @Override
+    public void onChildDraw(Canvas c, RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, float dX, float dY, int actionState, boolean isCurrentlyActive) {
+        int direction = dX < 0 ? ItemTouchHelper.LEFT : ItemTouchHelper.RIGHT;
+        NicyclerSwipe swipe = direction == ItemTouchHelper.RIGHT ? rightSwipe : leftSwipe;
+
+        if(dX != 0 && swipe != null) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            Style style = style(direction, ((NicyclerRecyclerAdapter.VH) viewHolder).d);
+
+            View itemView = viewHolder.itemView;
+            int itemHeight = itemView.getBottom() - itemView.getTop();
+
+            background.setColor(style.colour);
+            background.setBounds(
+                    direction == ItemTouchHelper.RIGHT ? 0 : itemView.getRight() + (int) dX,
+                    itemView.getTop(),
+                    direction == ItemTouchHelper.RIGHT ? (int) dX : itemView.getRight(),
+                    itemView.getBottom()
+            );
+            background.draw(c);
+
+            int iconTop = itemView.getTop() + (itemHeight - style.height) / 2;
+            int iconMargin = (itemHeight - style.height) / 2;
+            int iconLeft = direction == ItemTouchHelper.RIGHT ? iconMargin : itemView.getRight() - iconMargin - style.width;
+            int iconRight = direction == ItemTouchHelper.RIGHT ? iconMargin + style.width : itemView.getRight() - iconMargin;
+            int iconBottom = iconTop + style.height;
+
+            if(Math.abs(dX) > iconMargin) {
+                style.icon.setBounds(iconLeft, iconTop, iconRight, iconBottom);
+                style.icon.draw(c);
+            }
+            if(metrics != null) metrics.onSwipeDraw(System.nanoTime() - start);
         }
 
         super.onChildDraw(c, recyclerView, viewHolder, dX, dY, actionState, isCurrentlyActive);
     }
+
+    @Override
+    public void clearView(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+        // The gesture and its animation are over, so the item's data may change before it's next swiped
+        Object d = ((NicyclerRecyclerAdapter.VH) viewHolder).d;
+        forget(leftStyles, d);
+        forget(rightStyles, d);
+        super.clearView(recyclerView, viewHolder);
+    }
 }
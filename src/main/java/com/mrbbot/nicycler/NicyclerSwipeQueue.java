@@ -0,0 +1,182 @@
+package com.mrbbot.nicycler;
+
+import android.support.annotation.Nullable;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Swipes waiting to be delivered to their {@code NicyclerSwipe}. Swiped items are hidden from the
+ * projection straight away, then delivered together, in a list per direction, once nothing has
+ * been swiped for a while. Until then they can be undone. Delivering happens in a batch, so the
+ * changes the swipes make are worked out and notified in one go.
+ * @param <D> data type of the nicycler
+ */
+class NicyclerSwipeQueue<D> implements Runnable {
+    /**
+     * Batches the changes made by delivering swipes
+     */
+    interface Target {
+        void beginBatch();
+
+        void commit();
+    }
+
+    /**
+     * Returns a batch of swiped items to the projection, or one of them at a time when the swipe
+     * processes them one at a time
+     */
+    static final class Return<D> implements Callback {
+        private final NicyclerSwipeQueue<D> queue;
+        private final List<D> items;
+
+        Return(NicyclerSwipeQueue<D> queue, List<D> items) {
+            this.queue = queue;
+            this.items = items;
+        }
+
+        @Override
+        public void callback() {
+            queue.restore(items);
+        }
+
+        /**
+         * @param d item to return
+         * @return callback returning only that item
+         */
+        Callback item(final D d) {
+            return new Callback() {
+                @Override
+                public void callback() {
+                    queue.restore(Collections.singletonList(d));
+                }
+            };
+        }
+    }
+
+    private final View view;
+    private final NicyclerProjection<D> projection;
+    private final Target target;
+    @Nullable
+    private final NicyclerSwipe<D> leftSwipe, rightSwipe;
+    /**
+     * Milliseconds to wait after the last swipe before delivering
+     */
+    long delay;
+
+    private ArrayList<D> left = new ArrayList<>(), right = new ArrayList<>();
+    private final ArrayList<D> returning = new ArrayList<>();
+    private boolean delivering;
+    private final Runnable returner = new Runnable() {
+        @Override
+        public void run() {
+            returnPending();
+        }
+    };
+
+    NicyclerSwipeQueue(View view, NicyclerProjection<D> projection, Target target, @Nullable NicyclerSwipe<D> leftSwipe, @Nullable NicyclerSwipe<D> rightSwipe) {
+        this.view = view;
+        this.projection = projection;
+        this.target = target;
+        this.leftSwipe = leftSwipe;
+        this.rightSwipe = rightSwipe;
+    }
+
+    /**
+     * Hides a swiped item and waits for any more swipes before delivering it
+     * @param d item that was swiped
+     * @param right whether it was swiped right
+     */
+    void swiped(D d, boolean right) {
+        projection.hide(d);
+        (right ? this.right : left).add(d);
+        view.removeCallbacks(this);
+        view.postDelayed(this, delay);
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    /**
+     * Delivers the waiting swipes now
+     */
+    void flush() {
+        view.removeCallbacks(this);
+        if(left.isEmpty() && right.isEmpty()) return;
+        ArrayList<D> leftItems = left, rightItems = right;
+        left = new ArrayList<>();
+        right = new ArrayList<>();
+        target.beginBatch();
+        delivering = true;
+        try {
+            deliver(leftSwipe, leftItems);
+            deliver(rightSwipe, rightItems);
+        } finally {
+            delivering = false;
+            target.commit();
+        }
+    }
+
+    private void deliver(@Nullable NicyclerSwipe<D> swipe, ArrayList<D> items) {
+        // Items removed while they were waiting aren't delivered
+        int kept = 0;
+        for(int i = 0; i < items.size(); i++) {
+            D d = items.get(i);
+            if(projection.contains(d)) items.set(kept++, d);
+        }
+        items.subList(kept, items.size()).clear();
+        if(swipe == null || items.isEmpty()) return;
+        if(swipe.alwaysUpdate) for(D d : items) projection.show(d);
+        Return<D> callback = new Return<>(this, items);
+        if(swipe.swipeBatch(Collections.unmodifiableList(items), callback)) return;
+        for(D d : items) swipe.swipe(d, callback.item(d));
+    }
+
+    /**
+     * Puts back every swiped item that hasn't been delivered yet, without delivering it
+     * @return number of items put back
+     */
+    int undo() {
+        view.removeCallbacks(this);
+        int count = left.size() + right.size();
+        if(count == 0) return 0;
+        target.beginBatch();
+        try {
+            for(D d : left) projection.show(d);
+            for(D d : right) projection.show(d);
+        } finally {
+            left.clear();
+            right.clear();
+            target.commit();
+        }
+        return count;
+    }
+
+    /**
+     * Puts delivered items back, straight away while delivering, otherwise together at the end of
+     * the current message so items called back one at a time are returned in one go
+     */
+    private void restore(List<D> items) {
+        if(delivering) {
+            for(D d : items) projection.show(d);
+            return;
+        }
+        if(returning.isEmpty()) view.post(returner);
+        returning.addAll(items);
+    }
+
+    private void returnPending() {
+        if(returning.isEmpty()) return;
+        target.beginBatch();
+        try {
+            for(D d : returning) projection.show(d);
+        } finally {
+            returning.clear();
+            target.commit();
+        }
+    }
+}
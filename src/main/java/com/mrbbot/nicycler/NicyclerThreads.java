@@ -0,0 +1,48 @@
+package com.mrbbot.nicycler;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads shared by all nicyclers
+ */
+final class NicyclerThreads {
+    /**
+     * Executor for work that shouldn't block the main thread
+     */
+    static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(daemon("nicycler-background"));
+
+    /**
+     * Executor for preparing models ahead of binding, kept separate so scrolling doesn't wait
+     * behind diffing or restoring
+     */
+    static final ExecutorService PREPARE = Executors.newSingleThreadExecutor(daemon("nicycler-prepare"));
+
+    /**
+     * Executor for pulling streamed items, which can block for as long as a stream runs so gets a
+     * thread for each
+     */
+    static final ExecutorService STREAM = Executors.newCachedThreadPool(daemon("nicycler-stream"));
+
+    /**
+     * Handler for posting results back to the main thread
+     */
+    static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private NicyclerThreads() { }
+}
@@ -0,0 +1,90 @@
+package com.mrbbot.nicycler;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs work on the main thread at the start of the next frame. It can be scheduled from any
+ * thread, and scheduling it again before it has run does nothing.
+ */
+abstract class NicyclerTicker {
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    @Nullable
+    private final Frame frame;
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private final Runnable post = new Runnable() {
+        @Override
+        public void run() {
+            post();
+        }
+    };
+
+    NicyclerTicker() {
+        this.frame = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new Frame() : null;
+    }
+
+    /**
+     * Runs the tick on the next frame if the {@code Choreographer} is available
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class Frame implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            tick();
+        }
+    }
+
+    /**
+     * Called on the main thread at the start of a frame after being scheduled
+     */
+    abstract void onFrame();
+
+    /**
+     * @return whether the calling thread is the main thread
+     */
+    static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * Schedules {@code onFrame} for the next frame, unless it's already scheduled
+     */
+    void schedule() {
+        if(!scheduled.compareAndSet(false, true)) return;
+        if(isMainThread()) post();
+        else NicyclerThreads.MAIN.post(post);
+    }
+
+    /**
+     * Unschedules {@code onFrame}. This must be called on the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    void cancel() {
+        if(frame != null) Choreographer.getInstance().removeFrameCallback(frame);
+        NicyclerThreads.MAIN.removeCallbacks(post);
+        NicyclerThreads.MAIN.removeCallbacks(tick);
+        scheduled.set(false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void post() {
+        if(frame != null) Choreographer.getInstance().postFrameCallback(frame);
+        else NicyclerThreads.MAIN.post(tick);
+    }
+
+    private void tick() {
+        // Clear this first, so anything scheduled while we're running gets another frame
+        scheduled.set(false);
+        onFrame();
+    }
+}
@@ -1,7 +1,11 @@
 package com.mrbbot.nicycler;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.DividerItemDecoration;
@@ -12,21 +16,115 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * A nicer version of the {@code RecyclerView}
  * @param <D> data type of the nicycler
  * @param <V> view type of the nicycler
  */
-public class NicyclerView<D extends Serializable, V extends View> extends RecyclerView {
+public class NicyclerView<D, V extends View> extends RecyclerView {
     private final static String STATE_PREFIX = "nicycler_";
+    private final static String STATE_SNAPSHOT = "_snapshot";
+    private final static String STATE_FILTER = "_filter";
+    private final static String STATE_SORTER = "_sorter";
+    private final static String STATE_POSITION = "_position";
+    private final static long DEFAULT_STREAM_BUDGET = 4000000;
+    private final static int DEFAULT_POOL_SIZE = 5;
+
+    /**
+     * Size of a recycled view pool, which is only ever raised so warming up one nicycler doesn't
+     * shrink a pool another one has grown
+     */
+    private static final class PoolSize {
+        int items = DEFAULT_POOL_SIZE;
+    }
 
     private NicyclerRecyclerAdapter<D, V> adapter;
 
+    private NicyclerSwipeCallback swipeCallback;
+    private NicyclerSwipeQueue<D> swipes;
+    @Nullable
+    private NicyclerDiffer<D> differ;
+    @Nullable
+    private ItemAnimator suppressedItemAnimator;
+    private boolean suppressingItemAnimations;
+    @Nullable
+    private NicyclerCodec<D> codec;
+    @Nullable
+    private File snapshotFile;
+    @Nullable
+    private NicyclerSnapshot<D> restoring;
+    private final List<NicyclerStream<D>> streams = new ArrayList<>();
+    private final NicyclerMutations<D> mutations = new NicyclerMutations<>(new NicyclerMutations.Target<D>() {
+        @Override
+        public void set(List<D> items) {
+            setItems(items);
+        }
+
+        @Override
+        public void add(List<D> items) {
+            addItems(items);
+        }
+
+        @Override
+        public void remove(Filter<D> filter) {
+            NicyclerView.this.remove(filter);
+        }
+
+        @Override
+        public void update(Filter<D> filter, Object payload) {
+            NicyclerView.this.update(filter, payload);
+        }
+
+        @Override
+        public void beginBatch() {
+            NicyclerView.this.beginBatch();
+        }
+
+        @Override
+        public void commit() {
+            NicyclerView.this.commit();
+        }
+    });
+    private long streamBudget = DEFAULT_STREAM_BUDGET;
+    /**
+     * Whether the recycled view pool is shared with other nicyclers, so isn't ours to clear
+     */
+    private boolean poolShared;
+    /**
+     * Most item views the recycled view pool has been set to hold, shared along with the pool
+     */
+    private PoolSize poolSize = new PoolSize();
+    @Nullable
+    private MessageQueue.IdleHandler warmingUp;
+    @Nullable
+    private NicyclerStore<D> store;
+    @Nullable
+    private NicyclerStore.Member<D> member;
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) { }
+    };
+
     public NicyclerView(Context context) {
         super(context);
     }
@@ -44,7 +142,16 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
      * @param listener listener for key nicycler events
      */
     public void init(@NonNull NicyclerListener<D, V> listener) {
-        init(listener, null, null);
+        init(listener, null, null, null);
+    }
+
+    /**
+     * Initialisation method without swipes, using stable IDs
+     * @param listener listener for key nicycler events
+     * @param itemId function returning a stable ID for each item
+     */
+    public void init(@NonNull NicyclerListener<D, V> listener, @Nullable ItemId<D> itemId) {
+        init(listener, null, null, itemId);
     }
 
     /**
@@ -54,17 +161,31 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
      * @param rightSwipe swipe options for swiping right
      */
     public void init(@NonNull NicyclerListener<D, V> listener, @Nullable final NicyclerSwipe<D> leftSwipe, @Nullable final NicyclerSwipe<D> rightSwipe) {
+        init(listener, leftSwipe, rightSwipe, null);
+    }
+
+    /**
+     * Initialisation method using stable IDs
+     * @param listener listener for key nicycler events
+     * @param leftSwipe swipe options for swiping left
+     * @param rightSwipe swipe options for swiping right
+     * @param itemId function returning a stable ID for each item, or {@code null} to not use
+     * stable IDs
+     */
+    public void init(@NonNull NicyclerListener<D, V> listener, @Nullable final NicyclerSwipe<D> leftSwipe, @Nullable final NicyclerSwipe<D> rightSwipe, @Nullable ItemId<D> itemId) {
         setLayoutManager(new LinearLayoutManager(getContext()));
         addItemDecoration(new DividerItemDecoration(getContext(), DividerItemDecoration.VERTICAL));
 
-        adapter = new NicyclerRecyclerAdapter<>(listener);
+        adapter = new NicyclerRecyclerAdapter<>(listener, itemId);
         setAdapter(adapter);
 
-        NicyclerSwipeCallback swipeCallback = new NicyclerSwipeCallback(getContext(), leftSwipe, rightSwipe) {
+        swipeCallback = new NicyclerSwipeCallback(getContext(), leftSwipe, rightSwipe) {
             @Override
             public int getSwipeDirs(RecyclerView recyclerView, ViewHolder viewHolder) {
                 //noinspection unchecked
                 D d = (D) ((NicyclerRecyclerAdapter.VH) viewHolder).d;
+                // Placeholders and headers can't be swiped
+                if(d == null) return 0;
                 int dirs = 0;
                 if(leftSwipe != null && leftSwipe.canSwipe(d)) {
                     dirs += ItemTouchHelper.LEFT;
@@ -79,6 +200,11 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
             public void onSwiped(ViewHolder viewHolder, int direction) {
                 //noinspection unchecked
                 final D d = (D) ((NicyclerRecyclerAdapter.VH) viewHolder).d;
+                // Items loaded from a data source can't be hidden, so their swipes aren't batched
+                if(swipes.delay > 0 && adapter.pager == null) {
+                    swipes.swiped(d, direction == ItemTouchHelper.RIGHT);
+                    return;
+                }
 
                 Callback callback = new Callback() {
                     @Override
@@ -98,16 +224,192 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
         };
         ItemTouchHelper swipeTouchHelper = new ItemTouchHelper(swipeCallback);
         swipeTouchHelper.attachToRecyclerView(this);
+        swipes = new NicyclerSwipeQueue<>(this, adapter.projection, new NicyclerSwipeQueue.Target() {
+            @Override
+            public void beginBatch() {
+                NicyclerView.this.beginBatch();
+            }
+
+            @Override
+            public void commit() {
+                NicyclerView.this.commit();
+            }
+        }, leftSwipe, rightSwipe);
+    }
+
+    /**
+     * Batches swipes, for when lots of items are swiped in quick succession. Swiped items are
+     * hidden straight away, then once nothing has been swiped for the delay, they're passed to
+     * {@code NicyclerSwipe.swipeBatch} together, and the changes made are displayed at once. Until
+     * then, swipes can be undone with {@code undoSwipes}. Swipes of items loaded from a data
+     * source are always handled straight away.
+     * @param millis milliseconds to wait after the last swipe, or 0 to handle each swipe straight
+     * away
+     */
+    public void setSwipeDelay(long millis) {
+        if(millis <= 0) flushSwipes();
+        swipes.delay = Math.max(0, millis);
+    }
+
+    /**
+     * Handles swipes waiting to be batched now, rather than waiting for the delay
+     */
+    public void flushSwipes() {
+        swipes.flush();
+    }
+
+    /**
+     * Puts back items whose swipes are waiting to be batched, without handling the swipes
+     * @return number of items put back
+     */
+    public int undoSwipes() {
+        return swipes.undo();
+    }
+
+    /**
+     * Makes {@code set}, {@code filter} and {@code sort} filter and sort on a background thread,
+     * then animate the differences in rather than refreshing everything. Filters and comparators
+     * must be safe to call from a background thread while this is enabled.
+     * @param diff how to compare items, or {@code null} to go back to refreshing synchronously
+     */
+    public void async(@Nullable Diff<D> diff) {
+        if(differ != null) differ.cancel();
+        differ = diff == null ? null : new NicyclerDiffer<>(adapter, diff);
+    }
+
+    /**
+     * Loads items from a data source in pages instead of holding them all in memory. While a data
+     * source is set, filters and sorters are passed to it, and the dataset can't be modified
+     * directly: modify the source and call {@code refresh} instead.
+     * @param source source to load items from, or {@code null} to go back to the in-memory dataset
+     */
+    public void setDataSource(@Nullable final NicyclerDataSource<D> source) {
+        flushSwipes();
+        if(source != null) setStore(null);
+        if(adapter.pager != null) adapter.pager.cancel();
+        if(differ != null) differ.cancel();
+        cancelRestore();
+        cancelStreams();
+        mutations.clear();
+        adapter.invalidateAll();
+        // Pages aren't all in memory so can't be grouped
+        adapter.groups = null;
+        if(source == null) {
+            adapter.pager = null;
+            adapter.projection.reset();
+            return;
+        }
+        adapter.pager = new NicyclerPager<>(source, adapter);
+        adapter.onReset();
+        final Filter<D> filter = adapter.projection.filter;
+        final Comparator<D> sorter = adapter.projection.sorter;
+        adapter.pager.refresh(new Runnable() {
+            @Override
+            public void run() {
+                source.onFilter(filter);
+                source.onSort(sorter);
+            }
+        });
+    }
+
+    /**
+     * Displays the items of a store shared with other nicyclers, instead of a dataset of this
+     * nicycler's own. This nicycler keeps its own filter, sorter and groups. Its mutators change the
+     * store, so every nicycler displaying it is updated. While this nicycler is detached from its
+     * window it isn't kept up to date, and catches up once it's attached again. Nothing is saved by
+     * {@code save} while a store is set, as the items live there.
+     * @param store store to display, or {@code null} to go back to an empty dataset of its own
+     */
+    public void setStore(@Nullable NicyclerStore<D> store) {
+        if(store == this.store) return;
+        flushSwipes();
+        if(store != null && adapter.pager != null) setDataSource(null);
+        if(differ != null) differ.cancel();
+        cancelRestore();
+        cancelStreams();
+        mutations.clear();
+        adapter.invalidateAll();
+        if(this.store != null) this.store.detach(member);
+        this.store = store;
+        if(store == null) return;
+        if(member == null) {
+            member = new NicyclerStore.Member<D>(adapter.projection) {
+                @Override
+                void set(List<D> items) {
+                    replaceItems(items);
+                }
+
+                @Override
+                void invalidate(List<D> items) {
+                    for(D d : items) adapter.invalidate(d);
+                }
+
+                @Override
+                void commit() {
+                    commitProjection();
+                }
+            };
+        }
+        store.attach(member, getWindowToken() == null);
+    }
+
+    /**
+     * Reloads everything from the data source, or rebuilds the filtered and sorted dataset if
+     * there isn't one
+     */
+    public void refresh() {
+        adapter.invalidateAll();
+        if(adapter.pager != null) adapter.pager.refresh(null);
+        else adapter.projection.reset();
+    }
+
+    /**
+     * Throws if the dataset is being loaded from a data source, so can't be modified directly
+     */
+    private void requireDataset() {
+        if(adapter.pager != null) {
+            throw new IllegalStateException("Items can't be modified directly when using a data source, modify the source and call refresh() instead");
+        }
+    }
+
+    /**
+     * Filters and sorts datasets with at least the given number of items across multiple threads.
+     * Filters and comparators must be safe to call from multiple threads at once while this is
+     * enabled. Combine this with {@code async} to keep the work off the main thread entirely.
+     * @param items minimum dataset size, or 0 to always filter and sort on a single thread
+     */
+    public void setParallelThreshold(int items) {
+        adapter.projection.parallelThreshold = items;
     }
 
     /**
-     * Filters the dataset to only display items matching the filter
+     * Reports how long filtering, sorting, creating, binding and drawing swipes take, and how
+     * often the list is refreshed. Nothing is measured while this is {@code null}.
+     * @param metrics receiver of measurements, or {@code null} to stop measuring
+     */
+    public void setMetrics(@Nullable NicyclerMetrics metrics) {
+        adapter.projection.metrics = metrics;
+        adapter.metrics = metrics;
+        swipeCallback.metrics = metrics;
+    }
+
+    /**
+     * Filters the dataset to only display items matching the filter. If the filter is a
+     * {@code NarrowingFilter} that narrows the current filter, or one used recently, only the items
+     * that filter accepted are checked again.
      * @param filter filter to match against
      */
     public void filter(@Nullable Filter<D> filter) {
-        adapter.filter = filter;
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyDataSetChanged();
+        if(adapter.pager != null) {
+            adapter.projection.filter = filter;
+            adapter.pager.filter(filter);
+            return;
+        }
+        if(differ != null) {
+            differ.filter(filter);
+            return;
+        }
+        adapter.projection.filter(filter);
     }
 
     /**
@@ -115,77 +417,246 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
      * @param sorter comparator to compare items
      */
     public void sort(@Nullable Comparator<D> sorter) {
-        adapter.sorter = sorter;
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyDataSetChanged();
+        if(adapter.pager != null) {
+            adapter.projection.sorter = sorter;
+            adapter.pager.sort(sorter);
+            return;
+        }
+        if(differ != null) {
+            differ.sort(sorter);
+            return;
+        }
+        adapter.projection.sorter = sorter;
+        adapter.projection.reset();
+    }
+
+    /**
+     * Only displays the first items of the filtered and sorted dataset. They're selected without
+     * sorting the rest, and items added after the end are skipped without notifying anything, so
+     * this is much cheaper than displaying everything when only the top of a large dataset is
+     * wanted. Use {@code loadMore} to display more of them.
+     * @param items maximum number of items to display, or 0 to display every item
+     */
+    public void limit(int items) {
+        if(items < 0) throw new IllegalArgumentException("Limit can't be negative");
+        if(adapter.pager != null) {
+            throw new IllegalStateException("Items loaded from a data source are already paged, so can't be limited");
+        }
+        adapter.projection.limit(items);
+    }
+
+    /**
+     * Displays more items after the end of a limited dataset. The items already displayed aren't
+     * sorted again: only the next ones are found and appended. Does nothing if there is no limit.
+     * @param items number of extra items to display
+     */
+    public void loadMore(int items) {
+        int limit = adapter.projection.limit();
+        if(limit == 0 || items <= 0) return;
+        limit(limit + items);
+    }
+
+    /**
+     * Indexes the text of every item so {@code search} can find matches without checking each
+     * one. The index is kept up to date as items are added, removed and updated, so the text
+     * should only change when the item is updated.
+     * @param key function getting the text to search, or {@code null} to remove the index
+     */
+    public void searchable(@Nullable TextKey<D> key) {
+        requireDataset();
+        Filter<D> filter = adapter.projection.filter;
+        adapter.projection.index(key);
+        if(filter instanceof NicyclerIndex.Query) {
+            // Searches of the old index can't see changes anymore
+            String query = ((NicyclerIndex.Query<D>) filter).query;
+            filter(key == null ? null : adapter.projection.index.query(query));
+        }
+    }
+
+    /**
+     * Filters the dataset to items whose text contains the query, ignoring case. Searches that
+     * extend the previous one only check the items already displayed.
+     * @param query text to search for, or {@code null} or empty to show everything
+     */
+    public void search(@Nullable CharSequence query) {
+        requireDataset();
+        NicyclerIndex<D> index = adapter.projection.index;
+        if(index == null) throw new IllegalStateException("Items must be made searchable before they can be searched");
+        filter(query == null || query.length() == 0 ? null : index.query(query));
+    }
+
+    /**
+     * Sorts the dataset by a number, such as a timestamp, extracted once for each item
+     * @param key function getting the number to sort by
+     */
+    public void sortByLong(LongKey<D> key) {
+        sort(KeyedSorter.byLong(key));
+    }
+
+    /**
+     * Sorts the dataset by a comparable object, such as a {@code CollationKey}, extracted once for
+     * each item
+     * @param key function getting the object to sort by
+     */
+    public void sortByKey(Key<D, ?> key) {
+        sort(KeyedSorter.byKey(key));
     }
 
     /**
-     * Clears the dataset
+     * Shows a header before each run of neighbouring items in the same group. Sort by the group
+     * first so each group appears once. Adding, removing and updating items only touches the
+     * headers either side of them. The group key must be safe to call from a background thread if
+     * {@code async} is enabled.
+     * @param key function getting the group of an item, or {@code null} to remove the headers
+     * @param headers listener creating the header views and binding the group keys to them
+     * @param <K> type of the group keys
+     */
+    public <K> void group(@Nullable GroupKey<D, K> key, @Nullable NicyclerListener<K, ? extends View> headers) {
+        requireDataset();
+        if(key != null && headers == null) throw new IllegalArgumentException("Groups need a header listener");
+        adapter.group(key, headers);
+    }
+
+    /**
+     * Clears the dataset. This can be called from any thread.
      */
     public final void clear() {
-        adapter.dataset.clear();
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyDataSetChanged();
+        requireDataset();
+        if(!NicyclerTicker.isMainThread()) {
+            mutations.set(Collections.<D>emptyList());
+            return;
+        }
+        mutations.clear();
+        setItems(Collections.<D>emptyList());
     }
 
     /**
-     * Sets the contents of the dataset to the items
+     * Sets the contents of the dataset to the items. This can be called from any thread.
      * @param items items to set
      */
     @SafeVarargs
     public final void set(D... items) {
-        adapter.dataset.clear();
-        Collections.addAll(adapter.dataset, items);
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyDataSetChanged();
+        requireDataset();
+        if(!NicyclerTicker.isMainThread()) {
+            mutations.set(Arrays.asList(items));
+            return;
+        }
+        mutations.clear();
+        setItems(Arrays.asList(items));
+    }
+
+    private void setItems(List<D> items) {
+        // Swipes are handled before the items they're for are replaced
+        swipes.flush();
+        if(store != null) {
+            store.set(items);
+            return;
+        }
+        replaceItems(items);
+    }
+
+    private void replaceItems(List<D> items) {
+        cancelRestore();
+        cancelStreams();
+        adapter.invalidateAll();
+        if(differ != null) {
+            differ.set(items);
+            return;
+        }
+        adapter.projection.set(items);
     }
 
     /**
-     * Adds the contents of items to the dataset
+     * Adds the contents of items to the dataset. This can be called from any thread.
      * @param items items to add
      */
     @SafeVarargs
     public final void add(D... items) {
-        Collections.addAll(adapter.dataset, items);
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyItemRangeInserted(adapter.dataset.size() - items.length, items.length);
+        requireDataset();
+        if(!NicyclerTicker.isMainThread()) {
+            mutations.add(Arrays.asList(items));
+            return;
+        }
+        // Changes queued from other threads were made first
+        mutations.flush();
+        addItems(Arrays.asList(items));
+    }
+
+    private void addItems(List<D> items) {
+        if(store != null) store.add(items);
+        else adapter.projection.add(items);
     }
 
     /**
-     * Checks if a list contains any values of another list
-     * @param list list to check against
-     * @param checkList list containing values to check
-     * @return if {@param list} contains any of the values in {@param checkList}
+     * Adds items pulled from an iterator on a background thread, such as one reading a cursor or
+     * parsing a response. Items are added in chunks that fit the stream budget each frame, and the
+     * iterator is blocked while too many are waiting to be added. Setting or clearing the dataset
+     * stops the stream.
+     * @param items iterator to pull items from, which is only used on the background thread
      */
-    private boolean containsAny(ArrayList<D> list, ArrayList<D> checkList) {
-        for(D d : checkList) if(list.contains(d)) return true;
-        return false;
+    public void stream(Iterator<? extends D> items) {
+        stream(items, null);
     }
 
     /**
-     * Removes items from the dataset that match a filter
+     * Adds items pulled from an iterator on a background thread, such as one reading a cursor or
+     * parsing a response. Items are added in chunks that fit the stream budget each frame, and the
+     * iterator is blocked while too many are waiting to be added. Setting or clearing the dataset
+     * stops the stream.
+     * @param items iterator to pull items from, which is only used on the background thread
+     * @param done called once every item has been added, but not if the iterator throws, in
+     * which case the exception is logged and the items pulled before it are kept
+     */
+    public void stream(Iterator<? extends D> items, @Nullable final Callback done) {
+        requireDataset();
+        NicyclerStream<D> stream = new NicyclerStream<>(items, streamBudget, new NicyclerStream.Receiver<D>() {
+            @Override
+            public void onStreamed(List<D> items) {
+                addItems(items);
+            }
+
+            @Override
+            public void onFinished(NicyclerStream<D> stream, boolean complete) {
+                streams.remove(stream);
+                // Items added before the iterator threw are kept, but the import isn't complete
+                if(done != null && complete) done.callback();
+            }
+        });
+        streams.add(stream);
+        stream.start();
+    }
+
+    /**
+     * Stops any streams adding items, for when the dataset is replaced
+     */
+    private void cancelStreams() {
+        for(NicyclerStream<D> stream : streams) stream.cancel();
+        streams.clear();
+    }
+
+    /**
+     * Removes items from the dataset that match a filter. This can be called from any thread, in
+     * which case the filter is run on the main thread.
      * @param filter filter to match against
      */
     public final void remove(Filter<D> filter) {
+        requireDataset();
+        if(!NicyclerTicker.isMainThread()) {
+            mutations.remove(filter);
+            return;
+        }
+        mutations.flush();
+        if(store != null) {
+            store.remove(filter);
+            return;
+        }
         ArrayList<D> toRemove = new ArrayList<>();
-        for(int i = 0; i < adapter.dataset.size(); i++) {
-            if(filter.accept(adapter.dataset.get(i))) {
-                toRemove.add(adapter.dataset.get(i));
-            }
+        for(D d : adapter.projection.dataset) {
+            if(filter.accept(d)) toRemove.add(d);
         }
 
-        ArrayList<D> filteredDataset = adapter.getFilteredSortedDataset();
-        boolean updatingNeeded = containsAny(filteredDataset, toRemove);
-        adapter.dataset.removeAll(toRemove);
-        adapter.invalidateFilteredSortedCache();
-        if(updatingNeeded) {
-            if (toRemove.size() > 1) {
-                adapter.notifyDataSetChanged();
-            } else if (toRemove.size() == 1) {
-                adapter.notifyItemRemoved(filteredDataset.indexOf(toRemove.get(0)));
-            }
-        }
+        for(D d : toRemove) adapter.invalidate(d);
+        adapter.projection.remove(toRemove);
     }
 
     /**
@@ -194,32 +665,299 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
      * {@code true} should be returned, otherwise {@code false} should
      */
     public final void update(Filter<D> filter) {
+        update(filter, null);
+    }
+
+    /**
+     * Updates items from the dataset, describing what changed so views can be partially rebound.
+     * This can be called from any thread, in which case the filter is run on the main thread.
+     * @param filter filter that items are sent to where they may be updated; if they are
+     * {@code true} should be returned, otherwise {@code false} should
+     * @param payload description of the change passed to {@code onBind}, or {@code null} to rebind
+     * the whole item
+     */
+    public final void update(Filter<D> filter, @Nullable Object payload) {
+        requireDataset();
+        if(!NicyclerTicker.isMainThread()) {
+            mutations.update(filter, payload);
+            return;
+        }
+        mutations.flush();
+        if(store != null) {
+            store.update(filter, payload);
+            return;
+        }
         ArrayList<D> updated = new ArrayList<>();
-        for(int i = 0; i < adapter.dataset.size(); i++) {
-            if(filter.accept(adapter.dataset.get(i))) {
-                updated.add(adapter.dataset.get(i));
-            }
+        for(D d : adapter.projection.dataset) {
+            if(filter.accept(d)) updated.add(d);
         }
 
-        adapter.invalidateFilteredSortedCache();
-        ArrayList<D> filteredDataset = adapter.getFilteredSortedDataset();
-        if(containsAny(filteredDataset, updated)) {
-            if (updated.size() > 1) {
-                adapter.notifyDataSetChanged();
-            } else if (updated.size() == 1) {
-                Log.i("NICYCLER", "Single updated!");
-                adapter.notifyItemChanged(filteredDataset.indexOf(updated.get(0)));
-            }
-        }
+        for(D d : updated) adapter.invalidate(d);
+        adapter.projection.update(updated, payload);
     }
 
     /**
-     * Finds the index of the specified value in the dataset and triggers an update
+     * Re-evaluates the specified value's position in the dataset and triggers an update
      * @param d item to update
      */
     private void update(D d) {
-        adapter.invalidateFilteredSortedCache();
-        adapter.notifyItemChanged(adapter.getFilteredSortedDataset().indexOf(d));
+        adapter.invalidate(d);
+        if(adapter.pager != null) {
+            adapter.pager.update(d, null);
+            return;
+        }
+        if(store != null) {
+            store.update(Collections.singletonList(d), null);
+            return;
+        }
+        adapter.projection.update(d, null);
+    }
+
+    /**
+     * Starts a batch. Until {@code commit} is called, mutations are only applied to the dataset,
+     * then the differences are displayed all at once. Batches can be nested.
+     */
+    public final void beginBatch() {
+        if(store != null) store.beginBatch();
+        else adapter.projection.beginBatch();
+    }
+
+    /**
+     * Ends a batch started with {@code beginBatch}, displaying all of its changes at once
+     */
+    public final void commit() {
+        if(store != null) store.commit();
+        else commitProjection();
+    }
+
+    private void commitProjection() {
+        if(adapter.projection.commit()) suppressItemAnimations();
+        if(differ != null && !adapter.projection.batching()) differ.resume();
+    }
+
+    /**
+     * Applies all the mutations made in the callback at once
+     * @param callback callback that mutates the dataset
+     */
+    public final void batch(Callback callback) {
+        beginBatch();
+        try {
+            callback.callback();
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Sets the number of changes a batch can contain before everything is refreshed instead of
+     * working out the individual differences
+     * @param changes maximum number of added, removed or updated items
+     */
+    public void setBatchRefreshThreshold(int changes) {
+        adapter.projection.batchRefreshThreshold = changes;
+    }
+
+    /**
+     * Sets the fraction of the displayed items that can be removed or updated at once before
+     * everything is refreshed instead of notifying each change
+     * @param fraction fraction of displayed items between 0 and 1
+     */
+    public void setRefreshFraction(float fraction) {
+        adapter.projection.refreshFraction = fraction;
+    }
+
+    /**
+     * Sets how long streams can spend adding items each frame. Longer budgets add items faster but
+     * leave less of the frame for scrolling.
+     * @param millis milliseconds to spend each frame, 4 by default
+     */
+    public void setStreamBudget(float millis) {
+        streamBudget = (long) (millis * 1000000);
+    }
+
+    /**
+     * Creates item views while the main thread is idle, so they're ready in the recycled view pool
+     * before the first scroll instead of being created while it's happening. The pool is grown to
+     * hold them. Views already in the pool, such as ones from another nicycler sharing it, count
+     * towards the total. Warming up stops if the nicycler is detached from its window.
+     * @param count number of item views to have ready
+     */
+    public void warmUp(final int count) {
+        if(adapter == null) throw new IllegalStateException("The nicycler must be initialised before it's warmed up");
+        cancelWarmUp();
+        final RecycledViewPool pool = getRecycledViewPool();
+        if(count > poolSize.items) {
+            poolSize.items = count;
+            pool.setMaxRecycledViews(NicyclerRecyclerAdapter.TYPE_ITEM, count);
+        }
+        warmingUp = new MessageQueue.IdleHandler() {
+            private int remaining = count;
+
+            @Override
+            public boolean queueIdle() {
+                if(remaining <= 0 || pool.getRecycledViewCount(NicyclerRecyclerAdapter.TYPE_ITEM) >= count) return finishWarmUp(this);
+                // One view each time the queue is idle, so input and frames aren't held up
+                pool.putRecycledView(adapter.createViewHolder(NicyclerView.this, NicyclerRecyclerAdapter.TYPE_ITEM));
+                return --remaining > 0 || finishWarmUp(this);
+            }
+        };
+        Looper.myQueue().addIdleHandler(warmingUp);
+    }
+
+    /**
+     * Forgets a finished warm up, so it isn't removed again when it's cancelled
+     * @return {@code false}, so the idle handler is removed
+     */
+    private boolean finishWarmUp(MessageQueue.IdleHandler handler) {
+        if(warmingUp == handler) warmingUp = null;
+        return false;
+    }
+
+    /**
+     * Stops creating views for the recycled view pool
+     */
+    private void cancelWarmUp() {
+        if(warmingUp == null) return;
+        Looper.myQueue().removeIdleHandler(warmingUp);
+        warmingUp = null;
+    }
+
+    /**
+     * Shares recycled views with another nicycler, so views created by either can be reused by
+     * both. Both must use the same listener, and the same header listener if they're grouped.
+     * Shared views aren't dropped when memory is trimmed, as the other nicycler may still be
+     * displayed.
+     * @param other nicycler to share with
+     */
+    public void sharePool(NicyclerView<D, V> other) {
+        if(other.adapter.listener != adapter.listener) {
+            throw new IllegalArgumentException("Nicyclers can only share views if they use the same listener");
+        }
+        // Views being made for our old pool would be dropped with it
+        cancelWarmUp();
+        setRecycledViewPool(other.getRecycledViewPool());
+        poolShared = true;
+        other.poolShared = true;
+        poolSize = other.poolSize;
+    }
+
+    /**
+     * Sets how many items are created and bound ahead of them scrolling into view when this
+     * nicycler is nested in another scrolling view, such as a horizontal list in a vertical one
+     * @param items number of items to prefetch
+     */
+    public void setInitialPrefetchItemCount(int items) {
+        ((LinearLayoutManager) getLayoutManager()).setInitialPrefetchItemCount(items);
+    }
+
+    /**
+     * Gives every item the same height, so they don't need to be measured to fit their contents.
+     * Headers still fit their contents.
+     * @param pixels height of each item, or {@code ViewGroup.LayoutParams.WRAP_CONTENT} to fit
+     * their contents again
+     */
+    public void setFixedItemHeight(int pixels) {
+        adapter.itemHeight = pixels;
+        adapter.display.onReset();
+    }
+
+    /**
+     * Drops caches according to how much memory the system needs back. Caches only kept to make
+     * work faster are dropped first, then anything that can be rebuilt from the dataset. This is
+     * called automatically while the nicycler is attached to a window.
+     * @param level level passed to {@code ComponentCallbacks2.onTrimMemory}
+     */
+    public void trimMemory(int level) {
+        if(adapter == null) return;
+        // Includes being detached, when views made now would just be dropped
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) cancelWarmUp();
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            adapter.projection.releaseAll();
+            adapter.invalidateAll();
+            swipeCallback.trim();
+            // Other nicyclers sharing the pool may still be displayed
+            if(!poolShared) getRecycledViewPool().clear();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // The projection isn't being displayed, so it can wait to be rebuilt until it is
+            adapter.projection.release();
+            adapter.invalidateAll();
+            swipeCallback.trim();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The projection is still displayed, and releasing it would rebuild it on the next bind
+            adapter.projection.trimBuffers();
+            adapter.invalidateAll();
+            swipeCallback.trim();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            adapter.projection.trimBuffers();
+        }
+    }
+
+    /**
+     * Gets the number of items and objects held in each of the nicycler's caches
+     * @return sizes of the caches
+     */
+    public NicyclerCacheSizes getCacheSizes() {
+        NicyclerProjection<D> projection = adapter.projection;
+        NicyclerIndex<D> index = projection.index;
+        return new NicyclerCacheSizes(
+                projection.projectedSize(),
+                projection.historySize(),
+                projection.bufferSize(),
+                projection.keyedSize(),
+                index == null ? 0 : index.size(),
+                index == null ? 0 : index.gramCount(),
+                adapter.preparedCount(),
+                swipeCallback.iconCount(),
+                getRecycledViewPool().getRecycledViewCount(NicyclerRecyclerAdapter.TYPE_ITEM) +
+                        getRecycledViewPool().getRecycledViewCount(NicyclerRecyclerAdapter.TYPE_HEADER)
+        );
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        if(store != null) store.resume(member);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        if(swipes != null) swipes.flush();
+        if(store != null) store.suspend(member);
+        // Nothing's displayed until it's attached again, so keep only what can't be rebuilt
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+    }
+
+    /**
+     * Disables the item animator until the next layout, so a full refresh doesn't animate
+     */
+    private void suppressItemAnimations() {
+        if(suppressingItemAnimations) return;
+        suppressedItemAnimator = getItemAnimator();
+        suppressingItemAnimations = true;
+        setItemAnimator(null);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        if(suppressingItemAnimations) {
+            setItemAnimator(suppressedItemAnimator);
+            suppressedItemAnimator = null;
+            suppressingItemAnimations = false;
+        }
+    }
+
+    /**
+     * Sets the codec used to save and restore the dataset. With a codec, the dataset is written to
+     * a file in the cache directory and only a handle to it is stored in the bundle, which avoids
+     * hitting the bundle size limit. Without one, items must be {@code Serializable}.
+     * @param codec codec to encode items with, or {@code null} to use serialization
+     */
+    public void setCodec(@Nullable NicyclerCodec<D> codec) {
+        this.codec = codec;
     }
 
     /**
@@ -232,12 +970,40 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
 
     /**
      * Stores the dataset so that it can be restored later using the specified id to differentiate
-     * between multiple nicyclers
+     * between multiple nicyclers. Nothing is stored when using a data source or a store, as the
+     * items already live there. Filters and sorters are stored too if they're {@code Serializable}.
      * @param outState bundle to save to
      * @param id id to save to
      */
     public void save(Bundle outState, String id) {
-        outState.putSerializable(STATE_PREFIX + id, adapter.dataset);
+        if(adapter.pager != null || store != null) return;
+        String key = STATE_PREFIX + id;
+
+        if(codec == null) {
+            outState.putSerializable(key, adapter.projection.dataset);
+        } else {
+            try {
+                File file = File.createTempFile(key, ".snapshot", getContext().getCacheDir());
+                NicyclerSnapshot.write(file, adapter.projection.dataset, codec);
+                // Only the latest snapshot can be restored, so there's no need to keep the others
+                if(snapshotFile != null) //noinspection ResultOfMethodCallIgnored
+                    snapshotFile.delete();
+                snapshotFile = file;
+                outState.putString(key + STATE_SNAPSHOT, file.getAbsolutePath());
+            } catch(IOException e) {
+                Log.e("NICYCLER", "Couldn't save snapshot", e);
+            }
+        }
+
+        if(adapter.projection.filter instanceof Serializable) {
+            outState.putSerializable(key + STATE_FILTER, (Serializable) adapter.projection.filter);
+        }
+        if(adapter.projection.sorter instanceof Serializable) {
+            outState.putSerializable(key + STATE_SORTER, (Serializable) adapter.projection.sorter);
+        }
+        if(getLayoutManager() instanceof LinearLayoutManager) {
+            outState.putInt(key + STATE_POSITION, ((LinearLayoutManager) getLayoutManager()).findFirstVisibleItemPosition());
+        }
     }
 
     /**
@@ -249,15 +1015,64 @@ public class NicyclerView<D extends Serializable, V extends View> extends Recycl
     }
 
     /**
-     * Restores the dataset using the specified id to differentiate between multiple nicyclers
+     * Restores the dataset using the specified id to differentiate between multiple nicyclers. If
+     * the dataset was saved with a codec, it's read on a background thread and items are displayed
+     * as they're read.
      * @param savedInstanceState bundle to restore from
      * @param id id to restore from
      */
     @SuppressWarnings("unchecked")
     public void restore(Bundle savedInstanceState, String id) {
-        if(savedInstanceState.containsKey(STATE_PREFIX + id)) {
-            adapter.invalidateFilteredSortedCache();
-            adapter.dataset = (ArrayList<D>) savedInstanceState.getSerializable(STATE_PREFIX + id);
+        if(adapter.pager != null || store != null) return;
+        String key = STATE_PREFIX + id;
+        boolean serialized = savedInstanceState.containsKey(key);
+        if(!serialized && !savedInstanceState.containsKey(key + STATE_SNAPSHOT)) return;
+
+        flushSwipes();
+        if(differ != null) differ.cancel();
+        cancelRestore();
+        cancelStreams();
+        mutations.clear();
+        adapter.invalidateAll();
+        if(savedInstanceState.containsKey(key + STATE_FILTER)) {
+            adapter.projection.filter = (Filter<D>) savedInstanceState.getSerializable(key + STATE_FILTER);
+        }
+        if(savedInstanceState.containsKey(key + STATE_SORTER)) {
+            adapter.projection.sorter = (Comparator<D>) savedInstanceState.getSerializable(key + STATE_SORTER);
+        }
+        final int position = savedInstanceState.containsKey(key + STATE_POSITION) ? savedInstanceState.getInt(key + STATE_POSITION) : NO_POSITION;
+
+        if(serialized) {
+            adapter.projection.set((ArrayList<D>) savedInstanceState.getSerializable(key));
+            if(position != NO_POSITION) scrollToPosition(position);
+            return;
+        }
+
+        if(codec == null) throw new IllegalStateException("A codec must be set to restore a snapshot");
+        adapter.projection.set(Collections.<D>emptyList());
+        snapshotFile = new File(savedInstanceState.getString(key + STATE_SNAPSHOT));
+        restoring = new NicyclerSnapshot<>(snapshotFile, codec, new NicyclerSnapshot.Receiver<D>() {
+            private int pendingPosition = position;
+
+            @Override
+            public void onRestored(List<D> items) {
+                adapter.projection.add(items);
+                if(pendingPosition != NO_POSITION && adapter.getItemCount() > pendingPosition) {
+                    scrollToPosition(pendingPosition);
+                    pendingPosition = NO_POSITION;
+                }
+            }
+        });
+        restoring.start();
+    }
+
+    /**
+     * Stops a snapshot being restored, for when the dataset is replaced
+     */
+    private void cancelRestore() {
+        if(restoring != null) {
+            restoring.cancel();
+            restoring = null;
         }
     }
 }